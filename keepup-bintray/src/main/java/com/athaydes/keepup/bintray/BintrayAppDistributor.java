@@ -1,23 +1,30 @@
 package com.athaydes.keepup.bintray;
 
 import com.athaydes.keepup.api.AppDistributor;
+import com.athaydes.keepup.api.ConditionalRequestCache;
+import com.athaydes.keepup.api.HttpTransport;
+import com.athaydes.keepup.api.KeepupConfig;
 import com.athaydes.keepup.api.KeepupException;
+import com.athaydes.keepup.api.ResourceBudget;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import static com.athaydes.keepup.api.KeepupException.ErrorCode.LATEST_VERSION_CHECK;
 
 public class BintrayAppDistributor implements AppDistributor<BintrayVersion> {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
     private final String subject;
     private final String repositoryName;
     private final String packageName;
@@ -25,6 +32,10 @@ public class BintrayAppDistributor implements AppDistributor<BintrayVersion> {
     private final String artifactId;
     private final Function<String, CompletionStage<Boolean>> acceptVersion;
 
+    private volatile HttpTransport transport = HttpTransport.shared();
+    private volatile ConditionalRequestCache cache = ConditionalRequestCache.disabled();
+    private volatile ResourceBudget budget = ResourceBudget.unlimited();
+
     public BintrayAppDistributor(String subject,
                                  String repositoryName,
                                  String packageName,
@@ -39,68 +50,78 @@ public class BintrayAppDistributor implements AppDistributor<BintrayVersion> {
         this.acceptVersion = acceptVersion;
     }
 
+    @Override
+    public void init(KeepupConfig config) {
+        transport = config.httpTransport();
+        cache = ConditionalRequestCache.of(config);
+        budget = config.resourceBudget();
+    }
+
     @Override
     public CompletionStage<Optional<BintrayVersion>> findLatestVersion() throws Exception {
-        var url = new URL(String.format("https://bintray.com/%s/%s/%s/_latestVersion",
+        var uri = URI.create(String.format("https://bintray.com/%s/%s/%s/_latestVersion",
                 subject, repositoryName, packageName));
 
-        var future = new CompletableFuture<Optional<BintrayVersion>>();
-
-        var con = Http.connect(url, "HEAD", false);
-        try {
-            int status = con.getResponseCode();
-
-            String error;
-            if (300 <= status && status <= 310) {
-                String location = con.getHeaderField("Location");
-                if (location != null) {
-                    String latestVersion;
-                    try {
-                        latestVersion = extractVersionFromLocation(location);
-                        acceptVersion.apply(latestVersion)
-                                .whenComplete(completeFuture(future, new BintrayVersion(latestVersion)));
-
-                        // success, return early
-                        return future;
-                    } catch (KeepupException e) {
-                        error = e.getMessage();
-                    }
+        var cacheKey = uri.toString();
+        var request = cache.withValidators(cacheKey, HttpRequest.newBuilder(uri)
+                .timeout(TIMEOUT)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()))
+                .build();
+
+        return transport.sendAsync(request, BodyHandlers.discarding()).thenCompose(response -> {
+            // the latest version is given by the first redirect's location
+            var redirect = firstResponse(response);
+            int status = redirect.statusCode();
+
+            if (cache.isNotModified(redirect)) {
+                var latestVersion = cache.get(cacheKey).orElseThrow(() -> new KeepupException(
+                        LATEST_VERSION_CHECK, "Bintray response not modified, but cache entry is missing"));
+                return acceptLatestVersion(latestVersion);
+            } else if (300 <= status && status <= 310) {
+                var location = redirect.headers().firstValue("Location");
+                if (location.isPresent()) {
+                    var latestVersion = extractVersionFromLocation(location.get());
+                    cache.put(cacheKey, redirect, latestVersion);
+                    return acceptLatestVersion(latestVersion);
                 } else {
-                    error = "Redirect Location is missing";
+                    throw new KeepupException(LATEST_VERSION_CHECK, "Redirect Location is missing");
                 }
             } else {
-                error = "Unexpected status code: " + status;
+                throw KeepupException.fromResponse(LATEST_VERSION_CHECK,
+                        "Unexpected status code: " + status, redirect);
             }
+        });
+    }
 
-            future.completeExceptionally(new KeepupException(LATEST_VERSION_CHECK, error));
-        } catch (IOException e) {
-            future.completeExceptionally(new KeepupException(LATEST_VERSION_CHECK, e.toString()));
-        } finally {
-            con.disconnect();
+    @Override
+    public File download(BintrayVersion version) throws Exception {
+        try (var stream = openDownload(version)) {
+            var file = Files.createTempFile("keepup-asset", ".zip");
+            try (var out = budget.getDiskWriteLimiter().limit(Files.newOutputStream(file))) {
+                budget.getDownloadLimiter().limit(stream).transferTo(out);
+            }
+            return file.toFile();
         }
-
-        return future;
     }
 
     @Override
-    public File download(BintrayVersion version) throws Exception {
-        var url = new URL(String.format("https://dl.bintray.com/%s/%s/%s/%s/%s/%s-%s.zip",
+    public Optional<URI> downloadUri(BintrayVersion version) {
+        return Optional.of(URI.create(String.format("https://dl.bintray.com/%s/%s/%s/%s/%s/%s-%s.zip",
                 subject, repositoryName, coordToPath(groupId), artifactId,
-                version.name(), artifactId, version.name()));
-
-        var connection = Http.connect(url, "GET", true);
+                version.name(), artifactId, version.name())));
+    }
 
-        try {
-            if (connection.getResponseCode() != 200) {
-                throw new IOException("Unexpected status code: " + connection.getResponseCode() +
-                        " (" + url + ")");
-            }
-            var file = Files.createTempFile("keepup-asset", ".zip");
-            Files.copy(connection.getInputStream(), file, StandardCopyOption.REPLACE_EXISTING);
-            return file.toFile();
-        } finally {
-            connection.disconnect();
+    @Override
+    public InputStream openDownload(BintrayVersion version) throws Exception {
+        var uri = downloadUri(version).orElseThrow();
+        var request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).build();
+        var response = transport.send(request, BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("Unexpected status code: " + response.statusCode() +
+                    " (" + uri + ")");
         }
+        return response.body();
     }
 
     private static String extractVersionFromLocation(String location) {
@@ -115,19 +136,18 @@ public class BintrayAppDistributor implements AppDistributor<BintrayVersion> {
         }
     }
 
-    private static BiConsumer<Boolean, Throwable> completeFuture(CompletableFuture<Optional<BintrayVersion>> future,
-                                                                 BintrayVersion bintrayVersion) {
-        return (accept, error) -> {
-            if (error != null) {
-                future.completeExceptionally(error);
-            } else {
-                if (accept) {
-                    future.complete(Optional.of(bintrayVersion));
-                } else {
-                    future.complete(Optional.empty());
-                }
-            }
-        };
+    private CompletionStage<Optional<BintrayVersion>> acceptLatestVersion(String latestVersion) {
+        return acceptVersion.apply(latestVersion).thenApply(accept -> accept
+                ? Optional.of(new BintrayVersion(latestVersion))
+                : Optional.empty());
+    }
+
+    private static HttpResponse<?> firstResponse(HttpResponse<?> response) {
+        var first = response;
+        while (first.previousResponse().isPresent()) {
+            first = first.previousResponse().get();
+        }
+        return first;
     }
 
     private static String coordToPath(String coordinate) {
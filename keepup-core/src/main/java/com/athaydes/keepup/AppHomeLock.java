@@ -0,0 +1,337 @@
+package com.athaydes.keepup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Makes sure only one process at a time runs an update cycle in a Keepup home directory.
+ * <p>
+ * Several instances of an application share the same home directory, so they would otherwise check for, download
+ * and unpack the same update into the same location at the same time. The process that holds the lock records
+ * the outcome of its cycle in the home directory, so that processes that waited for it can reuse that outcome
+ * instead of repeating its work. Processes that reuse a staged update say so in the home directory, so that
+ * the process that staged it does not delete it if its own application rejects it.
+ * <p>
+ * Waiting for the lock never blocks a Thread inside a monitor: the file lock is polled, and this object's state is
+ * guarded by a {@link ReentrantLock} that is only held briefly.
+ */
+final class AppHomeLock {
+
+    static final String LOCK_FILE = "keepup.lock";
+    static final String STATE_FILE = "keepup-update.properties";
+
+    private static final String RESULT = "result";
+    private static final String VERSION = "version";
+    private static final String DIR = "dir";
+    private static final String TIME = "time";
+    private static final String REUSED = "reused";
+
+    private static final long POLL_MILLIS = 100L;
+
+    enum Result {
+        NO_UPDATE, STAGED,
+    }
+
+    /**
+     * The outcome of the last update cycle that completed in a Keepup home directory.
+     */
+    static final class Outcome {
+        final Result result;
+        final String version;
+        final File dir;
+        final long time;
+
+        Outcome(Result result, String version, File dir, long time) {
+            this.result = result;
+            this.version = version;
+            this.dir = dir;
+            this.time = time;
+        }
+    }
+
+    // file locks are held by the whole JVM, so Keepup instances sharing a home in one process also need these
+    private static final Map<Path, Semaphore> inProcessLocks = new ConcurrentHashMap<>();
+
+    private final File lockFile;
+    private final File stateFile;
+    private final Semaphore inProcessLock;
+    private final KeepupLogger log;
+    private final ReentrantLock stateLock = new ReentrantLock();
+
+    // guarded by stateLock
+    private FileChannel channel;
+    private FileLock lock;
+    private long stagedTime;
+
+    AppHomeLock(File appHome, KeepupLogger log) {
+        var home = appHome.toPath().toAbsolutePath().normalize();
+        this.lockFile = home.resolve(LOCK_FILE).toFile();
+        this.stateFile = home.resolve(STATE_FILE).toFile();
+        this.inProcessLock = inProcessLocks.computeIfAbsent(home, ignore -> new Semaphore(1));
+        this.log = log;
+    }
+
+    /**
+     * Acquire the lock, waiting for the process that holds it, if any, to release it.
+     *
+     * @return the outcome recorded by the process this one waited for, or empty if this process did not
+     * have to wait, or the other process did not complete its cycle
+     */
+    Optional<Outcome> acquire() throws IOException, InterruptedException {
+        stateLock.lock();
+        try {
+            if (lock != null) throw new IllegalStateException("Lock already acquired");
+        } finally {
+            stateLock.unlock();
+        }
+        var waitStart = System.currentTimeMillis();
+        var waited = false;
+        if (!inProcessLock.tryAcquire()) {
+            log.log("Waiting for another update cycle in this process");
+            inProcessLock.acquire();
+            waited = true;
+        }
+        FileChannel newChannel = null;
+        try {
+            Files.createDirectories(lockFile.getParentFile().toPath());
+            newChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            var newLock = newChannel.tryLock();
+            if (newLock == null) {
+                log.log("Waiting for another process, which is updating the application");
+                waited = true;
+                // sleeping between attempts lets the cycle be cancelled or time out while it waits
+                do {
+                    Thread.sleep(POLL_MILLIS);
+                    newLock = newChannel.tryLock();
+                } while (newLock == null);
+            }
+            stateLock.lock();
+            try {
+                channel = newChannel;
+                lock = newLock;
+            } finally {
+                stateLock.unlock();
+            }
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            close(newChannel);
+            inProcessLock.release();
+            throw e;
+        }
+        return waited
+                ? outcome(load()).filter(outcome -> outcome.time >= waitStart)
+                : Optional.empty();
+    }
+
+    /**
+     * @return true if this object holds the lock
+     */
+    boolean isHeld() {
+        stateLock.lock();
+        try {
+            return lock != null;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Release the lock, if it is held.
+     */
+    void release() {
+        FileChannel heldChannel;
+        FileLock heldLock;
+        stateLock.lock();
+        try {
+            heldChannel = channel;
+            heldLock = lock;
+            channel = null;
+            lock = null;
+        } finally {
+            stateLock.unlock();
+        }
+        if (heldLock == null) return;
+        try {
+            heldLock.release();
+        } catch (IOException e) {
+            log.log("ERROR: cannot release update lock: " + e);
+        } finally {
+            close(heldChannel);
+            inProcessLock.release();
+        }
+    }
+
+    void recordNoUpdate() {
+        record(Result.NO_UPDATE, null, null);
+    }
+
+    void recordStaged(String version, File dir) {
+        record(Result.STAGED, version, dir);
+    }
+
+    /**
+     * Record that this process is about to use the update staged in the given directory by another cycle.
+     */
+    void recordReused(File dir) {
+        stateLock.lock();
+        try {
+            if (lock == null) throw new IllegalStateException("Lock not acquired");
+            var state = load();
+            if (isStagedIn(state, dir)) {
+                state.setProperty(REUSED, Long.toString(System.currentTimeMillis()));
+                save(state);
+            }
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Forget the update this object staged in the given directory, after it was rejected, unless another cycle
+     * has picked it up since. The lock should be held when calling this method.
+     *
+     * @return true if the directory may be deleted, false if another cycle staged or reused an update in it
+     */
+    boolean discarded(File dir) {
+        stateLock.lock();
+        try {
+            if (stagedTime == 0L) {
+                // this object never staged the update, so it was not visible to other cycles
+                return true;
+            }
+            var state = load();
+            var ours = isStagedIn(state, dir)
+                    && state.getProperty(TIME, "").equals(Long.toString(stagedTime))
+                    && !state.containsKey(REUSED);
+            if (ours) {
+                //noinspection ResultOfMethodCallIgnored
+                stateFile.delete();
+            }
+            return ours;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * @return the update that was staged by the last cycle, and has not been installed yet
+     */
+    Optional<Outcome> staged() {
+        return staged(stateFile, log);
+    }
+
+    /**
+     * @return the directory of the update that was staged in the given Keepup home, and has not been installed yet
+     */
+    static Optional<File> stagedDir(File appHome, KeepupLogger log) {
+        return staged(new File(appHome, STATE_FILE), log).map(outcome -> outcome.dir);
+    }
+
+    /**
+     * Forget the update staged in the given Keepup home, once it has been installed.
+     */
+    static void installed(File appHome) {
+        //noinspection ResultOfMethodCallIgnored
+        new File(appHome, STATE_FILE).delete();
+    }
+
+    private static Optional<Outcome> staged(File stateFile, KeepupLogger log) {
+        return outcome(load(stateFile, log)).filter(outcome -> outcome.result == Result.STAGED);
+    }
+
+    private void record(Result result, String version, File dir) {
+        stateLock.lock();
+        try {
+            if (lock == null) throw new IllegalStateException("Lock not acquired");
+            var state = load();
+            var time = System.currentTimeMillis();
+            state.setProperty(RESULT, result.name());
+            state.setProperty(TIME, Long.toString(time));
+            state.remove(REUSED);
+            stagedTime = result == Result.STAGED ? time : 0L;
+            if (version == null) {
+                state.remove(VERSION);
+                state.remove(DIR);
+            } else {
+                state.setProperty(VERSION, version);
+                state.setProperty(DIR, dir.getAbsolutePath());
+            }
+            save(state);
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private static boolean isStagedIn(Properties state, File dir) {
+        return outcome(state).filter(outcome -> outcome.result == Result.STAGED)
+                .map(outcome -> outcome.dir.getAbsoluteFile().equals(dir.getAbsoluteFile()))
+                .orElse(false);
+    }
+
+    private static Optional<Outcome> outcome(Properties state) {
+        try {
+            var result = Result.valueOf(state.getProperty(RESULT, ""));
+            var time = Long.parseLong(state.getProperty(TIME, "0"));
+            if (result == Result.STAGED) {
+                var version = state.getProperty(VERSION);
+                var dir = state.getProperty(DIR);
+                if (version == null || dir == null) return Optional.empty();
+                return Optional.of(new Outcome(result, version, new File(dir), time));
+            }
+            return Optional.of(new Outcome(result, null, null, time));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private Properties load() {
+        return load(stateFile, log);
+    }
+
+    private static Properties load(File stateFile, KeepupLogger log) {
+        var state = new Properties();
+        if (stateFile.isFile()) {
+            try (InputStream in = Files.newInputStream(stateFile.toPath())) {
+                state.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                log.log("ERROR: cannot read update state: " + e);
+                return new Properties();
+            }
+        }
+        return state;
+    }
+
+    private void save(Properties state) {
+        try {
+            var tempFile = new File(stateFile.getParentFile(), STATE_FILE + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+                state.store(out, null);
+            }
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.log("ERROR: cannot save update state: " + e);
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
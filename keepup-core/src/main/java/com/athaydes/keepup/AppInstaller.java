@@ -4,10 +4,21 @@ import com.athaydes.keepup.api.InstallerArgs;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 final class AppInstaller {
 
     public static void main(String[] args) {
+        if (args.length == 1 && args[0].equals(CdsArchiver.TRAINING_ARG)) {
+            try {
+                train();
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(58);
+            }
+            return;
+        }
+
         InstallerArgs installerArgs;
         try {
             installerArgs = InstallerArgs.of(args);
@@ -33,9 +44,25 @@ final class AppInstaller {
         var newVersion = installerArgs.getNewVersion().toFile();
         var appName = installerArgs.getAppName();
 
-        deleteWithRetries(currVersion);
+        // the current installation must not be touched unless it can be replaced
+        if (!IoUtils.looksLikeJlinkApp(newVersion, appName)) {
+            System.out.println("AppInstaller cannot find the new version at " + newVersion);
+            System.exit(59);
+            return;
+        }
 
-        IoUtils.copy(newVersion, currVersion);
+        if (installerArgs.isSync()) {
+            withRetries("sync", () -> {
+                var changes = IoUtils.sync(newVersion, currVersion);
+                System.out.println("AppInstaller synced installation, files written or deleted: " + changes);
+            });
+        } else {
+            withRetries("delete old installation", () -> {
+                IoUtils.deleteContents(currVersion);
+                System.out.println("AppInstaller deleted old installation");
+            });
+            IoUtils.copy(newVersion, currVersion);
+        }
 
         var isWindows = IoUtils.isWindowsOs();
 
@@ -43,6 +70,9 @@ final class AppInstaller {
             IoUtils.setFilePermissions(currVersion, appName);
         }
 
+        // the update is installed, so other instances of the application no longer need to keep it
+        installerArgs.getAppHome().ifPresent(appHome -> AppHomeLock.installed(appHome.toFile()));
+
         if (installerArgs.isRelaunch()) {
             var launcher = IoUtils.launcher(currVersion, appName, isWindows);
 
@@ -58,18 +88,43 @@ final class AppInstaller {
         }
     }
 
-    // the current installation may be hard to delete while the app is still running, so
+    /**
+     * Exercise the code used during installation on temporary directories, so that the classes it needs
+     * can be included in a CDS archive.
+     */
+    private static void train() throws IOException {
+        var source = Files.createTempDirectory("keepup-training");
+        var destination = Files.createTempDirectory("keepup-training");
+        try {
+            Files.createDirectories(source.resolve("bin"));
+            Files.writeString(source.resolve("bin/file"), "training");
+            InstallerArgs.of(new InstallerArgs(destination, source, "training", false, true)
+                    .toArgs(false).toArray(String[]::new));
+            IoUtils.sync(source.toFile(), destination.toFile());
+            IoUtils.deleteContents(destination.toFile());
+            IoUtils.copy(source.toFile(), destination.toFile());
+            IoUtils.setFilePermissions(destination.toFile(), "training");
+            IoUtils.launcher(destination.toFile(), "training", IoUtils.isWindowsOs());
+        } finally {
+            IoUtils.deleteContents(source.toFile());
+            IoUtils.deleteContents(destination.toFile());
+            Files.delete(source);
+            Files.delete(destination);
+        }
+        System.out.println("AppInstaller training done");
+    }
+
+    // the current installation may be hard to modify while the app is still running, so
     // we need to try a few times before giving up as that allows for the current process to die.
-    private static void deleteWithRetries(File currVersion) {
+    private static void withRetries(String description, IoAction action) {
         int tries = 10;
         while (true) {
             tries--;
             try {
-                IoUtils.deleteContents(currVersion);
-                System.out.println("AppInstaller deleted old installation");
+                action.run();
                 return;
             } catch (IOException e) {
-                System.out.println("AppInstaller failed to delete old installation. Tries left: " + tries);
+                System.out.println("AppInstaller failed to " + description + ". Tries left: " + tries);
                 if (tries <= 0) {
                     e.printStackTrace();
                     System.exit(56);
@@ -84,4 +139,9 @@ final class AppInstaller {
         }
     }
 
+    @FunctionalInterface
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
 }
@@ -0,0 +1,54 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ArchiveFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The built-in {@link ArchiveFormat}s, and the selection of the format of an update.
+ */
+public final class ArchiveFormats {
+
+    public static final ArchiveFormat ZIP = new ZipFormat();
+    public static final ArchiveFormat TAR_GZ = new TarGzFormat();
+
+    private ArchiveFormats() {
+    }
+
+    /**
+     * Select the format of an archive, first by its file name, if known, then by its first bytes.
+     */
+    static ArchiveFormat select(List<ArchiveFormat> formats, Optional<String> fileName,
+                                byte[] header) throws IOException {
+        if (fileName.isPresent()) {
+            for (ArchiveFormat format : formats) {
+                if (format.matchesName(fileName.get())) return format;
+            }
+        }
+        for (ArchiveFormat format : formats) {
+            if (format.matchesMagic(header)) return format;
+        }
+        throw new IOException("Unsupported archive format" + fileName.map(name -> ": " + name).orElse(""));
+    }
+
+    static byte[] magic(File archive) throws IOException {
+        try (var in = Files.newInputStream(archive.toPath())) {
+            return in.readNBytes(ArchiveFormat.MAGIC_BYTES_LENGTH);
+        }
+    }
+
+    /**
+     * Peek into the first bytes of a stream, which must support {@link InputStream#mark(int)}.
+     */
+    static byte[] magic(InputStream archive) throws IOException {
+        archive.mark(ArchiveFormat.MAGIC_BYTES_LENGTH);
+        var header = archive.readNBytes(ArchiveFormat.MAGIC_BYTES_LENGTH);
+        archive.reset();
+        return header;
+    }
+}
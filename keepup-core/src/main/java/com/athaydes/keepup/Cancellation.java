@@ -0,0 +1,95 @@
+package com.athaydes.keepup;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Signals that an update cycle must stop, either because the application cancelled it or because
+ * one of its stages timed out.
+ * <p>
+ * Threads running a stage are interrupted when the cycle is aborted, which stops blocking calls.
+ * Copy loops also check {@link #check()} on every buffer, so they stop even when the I/O is not interruptible.
+ * As an interrupted stage may take a while to notice, {@link #stopped()} tells when no stage is running anymore.
+ */
+final class Cancellation {
+
+    private final Set<Thread> threads = new HashSet<>();
+    private final List<CompletableFuture<Void>> stoppedWaiters = new ArrayList<>();
+    private volatile Exception reason;
+
+    /**
+     * Abort the cycle. Only the first reason given is kept.
+     *
+     * @param reason a {@link CancellationException} or a {@link java.util.concurrent.TimeoutException}
+     * @return true if the cycle was aborted by this call
+     */
+    synchronized boolean abort(Exception reason) {
+        if (this.reason != null) return false;
+        this.reason = reason;
+        threads.forEach(Thread::interrupt);
+        return true;
+    }
+
+    boolean isAborted() {
+        return reason != null;
+    }
+
+    boolean isCancelled() {
+        return reason instanceof CancellationException;
+    }
+
+    Exception reason() {
+        return reason;
+    }
+
+    /**
+     * @throws InterruptedIOException if the cycle was aborted
+     */
+    void check() throws InterruptedIOException {
+        var reason = this.reason;
+        if (reason != null) {
+            var error = new InterruptedIOException(reason.getMessage());
+            error.initCause(reason);
+            throw error;
+        }
+    }
+
+    /**
+     * Register the current Thread as running a stage, so it gets interrupted if the cycle is aborted.
+     */
+    synchronized void enter() {
+        threads.add(Thread.currentThread());
+    }
+
+    void exit() {
+        List<CompletableFuture<Void>> waiters;
+        synchronized (this) {
+            threads.remove(Thread.currentThread());
+            if (reason != null) {
+                // do not leave the interrupt flag set on a Thread that belongs to the application's executor
+                //noinspection ResultOfMethodCallIgnored
+                Thread.interrupted();
+            }
+            if (!threads.isEmpty() || stoppedWaiters.isEmpty()) return;
+            waiters = new ArrayList<>(stoppedWaiters);
+            stoppedWaiters.clear();
+        }
+        // completed outside the lock, as whatever depends on them may run a stage right away
+        waiters.forEach(waiter -> waiter.complete(null));
+    }
+
+    /**
+     * @return a future that completes once no Thread is running a stage anymore
+     */
+    synchronized CompletableFuture<Void> stopped() {
+        if (threads.isEmpty()) return CompletableFuture.completedFuture(null);
+        var waiter = new CompletableFuture<Void>();
+        stoppedWaiters.add(waiter);
+        return waiter;
+    }
+}
@@ -0,0 +1,104 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.Keepup;
+import com.athaydes.keepup.api.KeepupConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates a Class Data Sharing (CDS) archive for a new version of the application, so that the JVM can map
+ * pre-parsed classes into memory on startup instead of loading them from the image.
+ * <p>
+ * The archive is written to the JVM's default location, {@code lib/server/classes.jsa}, which the JVM uses
+ * automatically, so neither the application launcher nor the installer need any extra options.
+ * <p>
+ * The archive includes the classes listed in:
+ * <ul>
+ *     <li>the image's own {@code lib/classlist}, the JDK's default list of commonly used classes.</li>
+ *     <li>{@code lib/<appName>.classlist}, if the application ships one (it can be created with
+ *     {@code java -Xshare:off -XX:DumpLoadedClassList=<appName>.classlist -m <module>/<main-class>}).</li>
+ *     <li>the classes loaded by the Keepup installer, obtained by running it in training mode.</li>
+ * </ul>
+ * All commands are run with the new image's own {@code java} executable, as archives only work with the exact
+ * JVM that created them.
+ */
+final class CdsArchiver {
+
+    static final String TRAINING_ARG = "--cds-training";
+
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private final String appName;
+    private final File appHome;
+    private final KeepupLogger log;
+
+    CdsArchiver(KeepupConfig config, KeepupLogger log) {
+        this.appName = config.appName();
+        this.appHome = config.appHome();
+        this.log = log;
+    }
+
+    void generate(File imageDir) throws IOException, InterruptedException {
+        var java = new File(imageDir, IoUtils.isWindowsOs() ? "bin/java.exe" : "bin/java").getAbsolutePath();
+        var serverDir = new File(imageDir, "lib/server");
+        if (!serverDir.isDirectory()) {
+            log.log("Image has no server JVM, cannot create CDS archive");
+            return;
+        }
+        var installerClassList = Files.createTempFile(appHome.toPath(), "keepup-installer", ".classlist");
+        var classList = Files.createTempFile(appHome.toPath(), "keepup-cds", ".classlist");
+        try {
+            run(java, "-Xshare:off", "-XX:DumpLoadedClassList=" + installerClassList,
+                    "-m", Keepup.class.getModule().getName() + "/" + AppInstaller.class.getName(),
+                    TRAINING_ARG);
+
+            var classes = new ArrayList<String>();
+            addClassList(imageDir.toPath().resolve("lib/classlist"), classes);
+            addClassList(imageDir.toPath().resolve("lib/" + appName + ".classlist"), classes);
+            addClassList(installerClassList, classes);
+            Files.write(classList, classes, StandardCharsets.UTF_8);
+
+            var archive = new File(serverDir, "classes.jsa");
+            run(java, "-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+                    "-XX:SharedArchiveFile=" + archive.getAbsolutePath(),
+                    "--add-modules", "ALL-SYSTEM");
+
+            // the JVM creates the archive as read-only, which would stop it from being replaced on some platforms
+            //noinspection ResultOfMethodCallIgnored
+            archive.setWritable(true);
+            log.log("Created CDS archive with " + classes.size() + " classes: " + archive);
+        } finally {
+            Files.deleteIfExists(installerClassList);
+            Files.deleteIfExists(classList);
+        }
+    }
+
+    private static void addClassList(Path file, List<String> classes) throws IOException {
+        if (Files.isRegularFile(file)) {
+            classes.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+    }
+
+    private void run(String... command) throws IOException, InterruptedException {
+        log.flush();
+        var proc = new ProcessBuilder(command)
+                .redirectOutput(Redirect.appendTo(log.getLogFile()))
+                .redirectError(Redirect.appendTo(log.getLogFile()))
+                .start();
+        if (!proc.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            proc.destroyForcibly();
+            throw new IOException("Command did not end in time: " + String.join(" ", command));
+        }
+        if (proc.exitValue() != 0) {
+            throw new IOException("Command exited with " + proc.exitValue() + ": " + String.join(" ", command));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.AppVersion;
+import com.athaydes.keepup.api.DeltaAppDistributor;
+import com.athaydes.keepup.api.KeepupConfig;
+import com.athaydes.keepup.api.ResourceBudget;
+import com.athaydes.keepup.api.UpdateManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.athaydes.keepup.IoUtils.currentApp;
+
+/**
+ * Assembles a new version of the application from the files that changed since the current version,
+ * as listed in the new version's {@link UpdateManifest}, and copies of the unchanged local files.
+ */
+final class DeltaUpdate<V extends AppVersion> {
+
+    private final KeepupConfig config;
+    private final DeltaAppDistributor<V> distributor;
+    private final V version;
+    private final UpdateManifest manifest;
+    private final Set<String> changedPaths;
+    private final long changedSize;
+
+    private DeltaUpdate(KeepupConfig config,
+                        DeltaAppDistributor<V> distributor,
+                        V version,
+                        UpdateManifest manifest,
+                        Set<String> changedPaths,
+                        long changedSize) {
+        this.config = config;
+        this.distributor = distributor;
+        this.version = version;
+        this.manifest = manifest;
+        this.changedPaths = changedPaths;
+        this.changedSize = changedSize;
+    }
+
+    /**
+     * Plan a delta update to the given version.
+     *
+     * @return the delta update, or empty if no manifest is available or the changed files are too large
+     * for a delta update to be worth it
+     */
+    static <V extends AppVersion> Optional<DeltaUpdate<V>> plan(KeepupConfig config,
+                                                               DeltaAppDistributor<V> distributor,
+                                                               V version,
+                                                               KeepupLogger log) throws Exception {
+        var manifest = distributor.manifest(version);
+        if (manifest.isEmpty()) {
+            log.log("No manifest available for version " + version.name());
+            return Optional.empty();
+        }
+        var currentManifest = UpdateManifest.of(currentApp().toPath());
+        var changed = manifest.get().changedSince(currentManifest);
+        var changedSize = changed.stream().mapToLong(UpdateManifest.Entry::getSize).sum();
+        var totalSize = manifest.get().totalSize();
+        log.log("Delta update requires " + changed.size() + " changed files, " +
+                changedSize + " of " + totalSize + " bytes");
+        if (changedSize > totalSize * config.maxDeltaUpdateRatio()) {
+            return Optional.empty();
+        }
+        return Optional.of(new DeltaUpdate<>(config, distributor, version, manifest.get(),
+                changed.stream().map(UpdateManifest.Entry::getPath).collect(Collectors.toSet()),
+                changedSize));
+    }
+
+    String versionName() {
+        return version.name();
+    }
+
+    /**
+     * Assemble the new version in the given directory.
+     *
+     * @param destinationDir directory to assemble the new version in
+     * @param progress       tracker for the changed files being fetched
+     * @return the update directory
+     */
+    File assemble(File destinationDir, ProgressTracker progress) throws Exception {
+        IoUtils.emptyDir(destinationDir);
+        var budget = config.resourceBudget();
+        progress.reset(0L, changedSize);
+        var destination = destinationDir.toPath().toAbsolutePath().normalize();
+        var current = currentApp().toPath();
+        for (UpdateManifest.Entry entry : manifest.getEntries()) {
+            progress.checkCancelled();
+            var target = destination.resolve(entry.getPath()).normalize();
+            if (!target.startsWith(destination) || target.equals(destination)) {
+                throw new IOException("Manifest entry is outside the application image: " + entry.getPath());
+            }
+            Files.createDirectories(target.getParent());
+            if (changedPaths.contains(entry.getPath())) {
+                fetch(entry, target, budget, progress);
+            } else {
+                IoUtils.copyFile(current.resolve(entry.getPath()), target, budget.getDiskWriteLimiter());
+            }
+        }
+        return destinationDir;
+    }
+
+    private void fetch(UpdateManifest.Entry entry, Path target,
+                       ResourceBudget budget, ProgressTracker progress) throws Exception {
+        var digest = Hashes.sha256();
+        var stream = progress.track(budget.getDownloadLimiter().limit(distributor.openFile(version, entry.getPath())));
+        try (var in = new DigestInputStream(stream, digest)) {
+            IoUtils.write(in, target, budget.getDiskWriteLimiter());
+        }
+        var hash = Hashes.toHex(digest.digest());
+        if (!hash.equalsIgnoreCase(entry.getSha256())) {
+            throw new IOException("Hash mismatch for " + entry.getPath() +
+                    ": expected " + entry.getSha256() + " but was " + hash);
+        }
+    }
+}
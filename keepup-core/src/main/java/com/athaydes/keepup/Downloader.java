@@ -0,0 +1,494 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.HttpTransport;
+import com.athaydes.keepup.api.KeepupConfig;
+import com.athaydes.keepup.api.ResourceBudget;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Downloads update files into the Keepup home directory, resuming partial downloads left over by previous
+ * update cycles when possible.
+ * <p>
+ * Partial downloads are keyed by version and URI. They are only resumed if the server still sends the same
+ * strong ETag or Last-Modified validator, which is checked with a {@code If-Range} request header, so if
+ * the asset changes, the download restarts from the beginning.
+ * <p>
+ * Large files are downloaded in segments over several concurrent connections if the server supports range
+ * requests (see {@link KeepupConfig#downloadSegments()}), otherwise a single connection is used.
+ * Segments are hashed in order as soon as all segments before them are complete, while the others are still
+ * being downloaded.
+ */
+final class Downloader {
+
+    static final String KEEPUP_DOWNLOADS = "keepup-downloads";
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String LENGTH = "length";
+    private static final String SEGMENTS = "segments";
+    private static final String DONE_SEGMENTS = "done";
+
+    private final File downloadsDir;
+    private final int maxSegments;
+    private final long minSegmentSize;
+    private final HttpTransport transport;
+    private final ResourceBudget budget;
+    private final KeepupLogger log;
+
+    Downloader(KeepupConfig config, KeepupLogger log) {
+        this.downloadsDir = new File(config.appHome(), KEEPUP_DOWNLOADS);
+        this.maxSegments = config.downloadSegments();
+        this.minSegmentSize = config.minDownloadSegmentSize();
+        this.transport = config.httpTransport();
+        this.budget = config.resourceBudget();
+        this.log = log;
+    }
+
+    File download(URI uri, String version, ProgressTracker progress, UpdateVerifier verifier) throws IOException {
+        if (!downloadsDir.mkdirs() && !downloadsDir.isDirectory()) {
+            throw new IOException("Downloads directory cannot be created: " + downloadsDir);
+        }
+
+        var key = keyFor(uri, version);
+        var partFile = new File(downloadsDir, key + ".part");
+        var metaFile = new File(downloadsDir, key + ".properties");
+        var zipFile = new File(downloadsDir, key + ".zip");
+
+        deleteStaleDownloads(key);
+
+        var meta = partFile.isFile() ? readMeta(metaFile) : new Properties();
+
+        if (meta.containsKey(SEGMENTS) && meta.getProperty(LENGTH, "").equals(Long.toString(partFile.length()))) {
+            log.log("Resuming segmented download");
+            downloadSegments(uri, partFile, metaFile, meta, progress, verifier);
+        } else if (validatorOf(meta) != null || maxSegments <= 1) {
+            downloadSingle(uri, partFile, metaFile, validatorOf(meta), progress, verifier);
+        } else {
+            probeAndDownload(uri, partFile, metaFile, progress, verifier);
+        }
+
+        Files.move(partFile.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(metaFile.toPath());
+        return zipFile;
+    }
+
+    private void downloadSingle(URI uri, File partFile, File metaFile, String validator,
+                                ProgressTracker progress, UpdateVerifier verifier) throws IOException {
+        var offset = validator == null ? 0L : partFile.length();
+        var request = request(uri);
+        if (offset > 0) {
+            log.log("Resuming download from byte " + offset);
+            request.header("Range", "bytes=" + offset + "-")
+                    .header("If-Range", validator);
+        }
+        var response = send(request);
+        try (var body = response.body()) {
+            var status = response.statusCode();
+            if (status == 206 && rangeStart(response) == offset) {
+                log.log("Server accepted resuming download");
+            } else if (status == 200) {
+                if (offset > 0) {
+                    log.log("Server sent whole file, download restarted");
+                }
+                offset = 0L;
+            } else if (status == 416 && offset > 0) {
+                // the partial file is not valid anymore, we must start over next time
+                deletePartialDownload(partFile, metaFile);
+                throw new IOException("Server rejected range request for partial download, " +
+                        "download will restart on next attempt");
+            } else {
+                throw new IOException("Unexpected status code: " + status + " (" + uri + ")");
+            }
+
+            writeResponse(response, body, partFile, metaFile, offset, progress, verifier);
+        }
+    }
+
+    /**
+     * Ask for the first byte of the file to find out whether the server supports range requests, and
+     * the size of the file. Only download in segments if that's the case and the file is large enough.
+     */
+    private void probeAndDownload(URI uri, File partFile, File metaFile,
+                                  ProgressTracker progress, UpdateVerifier verifier) throws IOException {
+        var response = send(request(uri).header("Range", "bytes=0-0"));
+        Properties meta;
+        long length;
+        try (var body = response.body()) {
+            var status = response.statusCode();
+            if (status == 200) {
+                log.log("Server does not support range requests, downloading with a single connection");
+                writeResponse(response, body, partFile, metaFile, 0L, progress, verifier);
+                return;
+            }
+            if (status != 206 || rangeStart(response) != 0L) {
+                throw new IOException("Unexpected status code: " + status + " (" + uri + ")");
+            }
+            // consume the body so the connection can be reused
+            body.transferTo(OutputStream.nullOutputStream());
+            length = rangeTotal(response);
+            meta = validatorMeta(response);
+        }
+
+        var segments = (int) Math.min(maxSegments, length / Math.max(1L, minSegmentSize));
+        if (meta.isEmpty() || segments <= 1) {
+            downloadSingle(uri, partFile, metaFile, null, progress, verifier);
+            return;
+        }
+
+        log.log("Downloading " + length + " bytes in " + segments + " segments");
+        meta.setProperty(LENGTH, Long.toString(length));
+        meta.setProperty(SEGMENTS, Integer.toString(segments));
+        meta.setProperty(DONE_SEGMENTS, "");
+        try (var file = new RandomAccessFile(partFile, "rw")) {
+            file.setLength(length);
+        }
+        writeMeta(meta, metaFile);
+        downloadSegments(uri, partFile, metaFile, meta, progress, verifier);
+    }
+
+    private void downloadSegments(URI uri, File partFile, File metaFile, Properties meta,
+                                  ProgressTracker progress, UpdateVerifier verifier) throws IOException {
+        var validator = validatorOf(meta);
+        var length = Long.parseLong(meta.getProperty(LENGTH));
+        var segments = Integer.parseInt(meta.getProperty(SEGMENTS));
+        var done = doneSegments(meta);
+        var segmentSize = (length + segments - 1) / segments;
+        progress.reset(done.stream().mapToLong(i -> Math.min(length, (i + 1) * segmentSize) - i * segmentSize).sum(),
+                length);
+
+        var tasks = new ArrayList<Callable<Void>>(segments);
+        List<Future<Void>> results;
+        try (var channel = FileChannel.open(partFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var hasher = new SegmentHasher(verifier, channel, length, segmentSize);
+            for (var index : done) {
+                hasher.segmentDone(index);
+            }
+            for (int i = 0; i < segments; i++) {
+                if (done.contains(i)) continue;
+                var index = i;
+                var start = i * segmentSize;
+                var end = Math.min(length, start + segmentSize) - 1;
+                tasks.add(() -> {
+                    downloadSegment(uri, validator, channel, start, end, progress);
+                    markDone(index, meta, metaFile);
+                    hasher.segmentDone(index);
+                    return null;
+                });
+            }
+
+            var pool = Executors.newFixedThreadPool(Math.max(1, tasks.size()), runnable -> {
+                var thread = budget.configure(new Thread(runnable, "keepup-download"));
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                results = pool.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        rethrowErrors(results, partFile, metaFile);
+    }
+
+    private void downloadSegment(URI uri, String validator, FileChannel channel,
+                                 long start, long end, ProgressTracker progress) throws IOException {
+        // use HTTP/1.1 so that each segment gets its own TCP connection, rather than being multiplexed
+        // over a single HTTP/2 connection, which would defeat the purpose of downloading in segments
+        var response = send(request(uri)
+                .version(HttpClient.Version.HTTP_1_1)
+                .header("Range", "bytes=" + start + "-" + end)
+                .header("If-Range", validator));
+        try (var in = response.body()) {
+            var status = response.statusCode();
+            if (status == 200) {
+                throw new AssetChangedException();
+            }
+            if (status != 206 || rangeStart(response) != start) {
+                throw new IOException("Unexpected status code: " + status + " (" + uri + ")");
+            }
+            var downloadLimiter = budget.getDownloadLimiter();
+            var diskWriteLimiter = budget.getDiskWriteLimiter();
+            var buffer = ByteBuffer.allocate(64 * 1024);
+            var position = start;
+            int count;
+            while ((count = in.read(buffer.array())) > 0) {
+                downloadLimiter.acquire(count);
+                diskWriteLimiter.acquire(count);
+                buffer.limit(count);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                buffer.clear();
+                progress.add(count);
+            }
+            if (position != end + 1) {
+                throw new IOException("Download of segment incomplete, expected " + (end + 1 - start) +
+                        " bytes but got " + (position - start));
+            }
+        }
+    }
+
+    private void rethrowErrors(List<Future<Void>> results, File partFile, File metaFile) throws IOException {
+        IOException error = null;
+        for (var result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException | InterruptedException e) {
+                var cause = e instanceof ExecutionException ? e.getCause() : e;
+                if (cause instanceof AssetChangedException) {
+                    log.log("File changed on server during download, download will restart on next attempt");
+                    deletePartialDownload(partFile, metaFile);
+                }
+                if (error == null) {
+                    error = new IOException("Segmented download failed", cause);
+                } else {
+                    error.addSuppressed(cause);
+                }
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    private static void markDone(int segment, Properties meta, File metaFile) throws IOException {
+        synchronized (meta) {
+            var done = meta.getProperty(DONE_SEGMENTS);
+            meta.setProperty(DONE_SEGMENTS, done.isEmpty() ? Integer.toString(segment) : done + "," + segment);
+            writeMeta(meta, metaFile);
+        }
+    }
+
+    private static List<Integer> doneSegments(Properties meta) {
+        var done = meta.getProperty(DONE_SEGMENTS, "");
+        if (done.isEmpty()) return List.of();
+        return Stream.of(done.split(","))
+                .map(Integer::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    private void writeResponse(HttpResponse<?> response, InputStream body, File partFile,
+                               File metaFile, long offset, ProgressTracker progress,
+                               UpdateVerifier verifier) throws IOException {
+        var meta = validatorMeta(response);
+        if (meta.isEmpty()) {
+            // no way to resume safely
+            Files.deleteIfExists(metaFile.toPath());
+        } else {
+            writeMeta(meta, metaFile);
+        }
+
+        var contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+        var expectedLength = offset + contentLength;
+        progress.reset(offset, contentLength >= 0 ? expectedLength : -1L);
+
+        // the bytes downloaded before resuming must be hashed before the new ones
+        verifier.updateFrom(partFile, offset);
+
+        try (var out = budget.getDiskWriteLimiter().limit(new FileOutputStream(partFile, offset > 0))) {
+            verifier.track(progress.track(budget.getDownloadLimiter().limit(body))).transferTo(out);
+        }
+
+        if (contentLength >= 0 && partFile.length() != expectedLength) {
+            throw new IOException("Download incomplete, expected " + expectedLength +
+                    " bytes but got " + partFile.length());
+        }
+    }
+
+    private static HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(10))
+                .GET();
+    }
+
+    private HttpResponse<InputStream> send(HttpRequest.Builder request) throws IOException {
+        try {
+            return transport.send(request.build(), BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+    }
+
+    // Content-Range: bytes <start>-<end>/<total>
+    private static long rangeStart(HttpResponse<?> response) {
+        var range = response.headers().firstValue("Content-Range").orElse(null);
+        if (range == null || !range.startsWith("bytes ")) return -1L;
+        var dash = range.indexOf('-');
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), dash));
+        } catch (RuntimeException e) {
+            return -1L;
+        }
+    }
+
+    private static long rangeTotal(HttpResponse<?> response) throws IOException {
+        var range = response.headers().firstValue("Content-Range").orElse(null);
+        var slash = range == null ? -1 : range.indexOf('/');
+        try {
+            return Long.parseLong(range.substring(slash + 1));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid Content-Range: " + range);
+        }
+    }
+
+    private static Properties validatorMeta(HttpResponse<?> response) {
+        var meta = new Properties();
+        var etag = response.headers().firstValue(ETAG).orElse(null);
+
+        // weak ETags cannot be used with If-Range
+        if (etag != null && !etag.startsWith("W/")) {
+            meta.setProperty(ETAG, etag);
+        } else {
+            response.headers().firstValue(LAST_MODIFIED)
+                    .ifPresent(lastModified -> meta.setProperty(LAST_MODIFIED, lastModified));
+        }
+        return meta;
+    }
+
+    private static String validatorOf(Properties meta) {
+        var etag = meta.getProperty(ETAG);
+        if (etag != null) return etag;
+        return meta.getProperty(LAST_MODIFIED);
+    }
+
+    private static Properties readMeta(File metaFile) {
+        var props = new Properties();
+        if (!metaFile.isFile()) return props;
+        try (var in = Files.newInputStream(metaFile.toPath())) {
+            props.load(in);
+        } catch (IOException e) {
+            props.clear();
+        }
+        return props;
+    }
+
+    private static void writeMeta(Properties meta, File metaFile) throws IOException {
+        try (var out = Files.newOutputStream(metaFile.toPath())) {
+            meta.store(out, null);
+        }
+    }
+
+    /**
+     * Delete what was downloaded so far of the given version, so it is not resumed.
+     */
+    void discard(URI uri, String version) {
+        var key = keyFor(uri, version);
+        deletePartialDownload(new File(downloadsDir, key + ".part"), new File(downloadsDir, key + ".properties"));
+    }
+
+    private void deleteStaleDownloads(String key) {
+        var files = downloadsDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.getName().startsWith(key + ".")) {
+                log.log("Deleting stale download: " + file.getName());
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private static void deletePartialDownload(File partFile, File metaFile) {
+        //noinspection ResultOfMethodCallIgnored
+        partFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        metaFile.delete();
+    }
+
+    private static String keyFor(URI uri, String version) {
+        var digest = Hashes.sha256().digest((version + '\n' + uri).getBytes(StandardCharsets.UTF_8));
+        return Hashes.toHex(digest).substring(0, 32);
+    }
+
+    /**
+     * Updates a verifier with the segments of a file in order, as they complete. Only one Thread at a time hashes
+     * segments, the others just report that theirs is complete.
+     */
+    private static final class SegmentHasher {
+        private final UpdateVerifier verifier;
+        private final FileChannel channel;
+        private final long length;
+        private final long segmentSize;
+        private final Set<Integer> done = new HashSet<>();
+        private int next;
+        private boolean hashing;
+
+        SegmentHasher(UpdateVerifier verifier, FileChannel channel, long length, long segmentSize) {
+            this.verifier = verifier;
+            this.channel = channel;
+            this.length = length;
+            this.segmentSize = segmentSize;
+        }
+
+        void segmentDone(int index) throws IOException {
+            if (!verifier.isEnabled()) return;
+            synchronized (this) {
+                done.add(index);
+                if (hashing) return;
+                hashing = true;
+            }
+            try {
+                while (true) {
+                    int segment;
+                    synchronized (this) {
+                        if (!done.contains(next)) {
+                            hashing = false;
+                            return;
+                        }
+                        segment = next;
+                    }
+                    var start = segment * segmentSize;
+                    verifier.updateFrom(channel, start, Math.min(length, start + segmentSize));
+                    synchronized (this) {
+                        next++;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    hashing = false;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static final class AssetChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        AssetChangedException() {
+            super("File changed on server during download");
+        }
+    }
+}
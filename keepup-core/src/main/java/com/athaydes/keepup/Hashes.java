@@ -0,0 +1,55 @@
+package com.athaydes.keepup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hashing helpers used throughout Keepup.
+ */
+public final class Hashes {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hashes() {
+    }
+
+    /**
+     * @return a new SHA-256 {@link MessageDigest}
+     */
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the SHA-256 hash of the contents of the given file, as a lower-case hex String
+     */
+    public static String sha256Hex(Path file) throws IOException {
+        var digest = sha256();
+        try (var in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return the given bytes as a lower-case hex String
+     */
+    public static String toHex(byte[] bytes) {
+        var result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+}
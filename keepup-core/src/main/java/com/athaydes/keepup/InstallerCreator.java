@@ -11,27 +11,44 @@ import java.lang.ProcessBuilder.Redirect;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.athaydes.keepup.IoUtils.currentApp;
-import static com.athaydes.keepup.IoUtils.unpackedApp;
 
 final class InstallerCreator {
 
-    static UpdateInstaller create(KeepupConfig config) {
+    static UpdateInstaller create(KeepupConfig config, File newVersionDir) {
+        if (config.versionedInstall()) {
+            return new VersionedInstaller(config, newVersionDir);
+        }
         var currVersion = currentApp().toPath();
-        var newVersion = unpackedApp(config.appHome()).toPath();
+        var newVersion = newVersionDir.toPath();
         return new Installer(config, new InstallerArgs(currVersion, newVersion,
-                config.appName(), false));
+                config.appName(), false, config.syncInstall(), config.appHome().toPath()));
+    }
+
+    /**
+     * @return the command that runs the installer from the new version of the application
+     */
+    static List<String> installerCommand(InstallerArgs args, boolean relaunch) {
+        return Stream.concat(
+                List.of(new File(args.getNewVersion().toFile(), "bin/java").getAbsolutePath(),
+                        "-m",
+                        Keepup.class.getModule().getName() + "/" + AppInstaller.class.getName()).stream(),
+                args.toArgs(relaunch).stream()
+        ).collect(Collectors.toList());
     }
 
     private static class Installer implements UpdateInstaller {
         private final AtomicBoolean done = new AtomicBoolean(false);
+        private final KeepupConfig config;
         private final KeepupLogger log;
         private final InstallerArgs args;
 
         public Installer(KeepupConfig config,
                          InstallerArgs installerArgs) {
+            this.config = config;
             this.log = new KeepupLogger(config.keepupLog());
             this.args = installerArgs;
         }
@@ -57,18 +74,20 @@ final class InstallerCreator {
             Runtime.getRuntime().addShutdownHook(new Thread(() -> invokeInstaller(false)));
         }
 
+        @Override
+        public void installOnNextLaunch() {
+            checkNotDone();
+            PendingUpdate.markReady(config, args.getNewVersion().toFile(), log);
+        }
+
         private void invokeInstaller(boolean relaunch) {
-            String[] command = Stream.concat(
-                    List.of(new File(args.getNewVersion().toFile(), "bin/java").getAbsolutePath(),
-                            "-m",
-                            Keepup.class.getModule().getName() + "/" + AppInstaller.class.getName()).stream(),
-                    args.toArgs(relaunch).stream()
-            ).toArray(String[]::new);
+            var command = installerCommand(args, relaunch);
 
             try {
+                log.flush();
                 var proc = new ProcessBuilder(command)
-                        .redirectOutput(Redirect.to(log.getLogFile()))
-                        .redirectError(Redirect.to(log.getLogFile()))
+                        .redirectOutput(Redirect.appendTo(log.getLogFile()))
+                        .redirectError(Redirect.appendTo(log.getLogFile()))
                         .start();
 
                 // we try to wait until the process is done as in some platforms, the running software
@@ -94,4 +113,81 @@ final class InstallerCreator {
             }
         }
     }
+
+    /**
+     * Installer for the {@link VersionedLayout}, which does not need to replace any files: the new version only
+     * needs to be activated, and that can be done from within the running application.
+     */
+    private static class VersionedInstaller implements UpdateInstaller {
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final KeepupConfig config;
+        private final KeepupLogger log;
+        private final VersionedLayout layout;
+        private final File newVersionDir;
+        private final String appName;
+
+        VersionedInstaller(KeepupConfig config, File newVersionDir) {
+            this.config = config;
+            this.log = new KeepupLogger(config.keepupLog());
+            this.layout = new VersionedLayout(config.appHome());
+            this.newVersionDir = newVersionDir;
+            this.appName = config.appName();
+        }
+
+        @Override
+        public void launchUpdatedAppWithoutExiting() {
+            checkNotDone();
+            if (activate()) {
+                var launcher = IoUtils.launcher(layout.launchDir(newVersionDir), appName, IoUtils.isWindowsOs());
+                log.log("Launching " + launcher);
+                try {
+                    new ProcessBuilder(launcher)
+                            .redirectOutput(Redirect.DISCARD)
+                            .redirectError(Redirect.DISCARD)
+                            .start();
+                } catch (IOException e) {
+                    log.log("ERROR: " + e);
+                }
+            }
+        }
+
+        @Override
+        public void quitAndLaunchUpdatedApp() {
+            launchUpdatedAppWithoutExiting();
+            log.log("Exiting process");
+            System.exit(0);
+        }
+
+        @Override
+        public void installUpdateOnExit() {
+            checkNotDone();
+            log.log("Will activate new version on JVM shutdown");
+            Runtime.getRuntime().addShutdownHook(new Thread(this::activate));
+        }
+
+        @Override
+        public void installOnNextLaunch() {
+            checkNotDone();
+            PendingUpdate.markReady(config, newVersionDir, log);
+        }
+
+        private boolean activate() {
+            try {
+                layout.activate(newVersionDir, log);
+                // the update is installed, so other instances of the application no longer need to keep it
+                AppHomeLock.installed(config.appHome());
+                layout.collectGarbage(log);
+                return true;
+            } catch (IOException e) {
+                log.log("ERROR: " + e);
+                return false;
+            }
+        }
+
+        private void checkNotDone() {
+            if (done.getAndSet(true)) {
+                throw new IllegalStateException("Action already performed");
+            }
+        }
+    }
 }
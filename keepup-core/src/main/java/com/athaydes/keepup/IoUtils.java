@@ -1,24 +1,68 @@
 package com.athaydes.keepup;
 
-import java.io.BufferedInputStream;
+import com.athaydes.keepup.api.ArchiveFormat;
+import com.athaydes.keepup.api.RateLimiter;
+import com.athaydes.keepup.api.ResourceBudget;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 final class IoUtils {
 
     public static final String KEEPUP_UNPACKED_APP = "keepup-update";
 
-    public static File unpack(File newVersionZipFile, File home) throws IOException {
-        var destinationDir = unpackedApp(home);
+    /**
+     * Unpack an archive file in the given format, within the given resource budget.
+     */
+    public static File unpack(File archive, File destinationDir, ArchiveFormat format, ResourceBudget budget,
+                              ProgressTracker progress) throws IOException {
+        emptyDir(destinationDir);
+        format.unpack(archive, destinationDir, new UnpackContext(budget, progress));
+        return destinationDir;
+    }
+
+    /**
+     * Unpack an archive while it is read from the given stream.
+     * <p>
+     * The stream may come directly from a network connection, in which case the update is unpacked while it's
+     * being downloaded. The stream is always read until the end, so that it can be verified as a whole,
+     * and closed by this method.
+     * <p>
+     * The rate at which files are written is limited by the given budget, and the number of bytes and entries
+     * unpacked are reported to the given progress tracker.
+     */
+    public static File unpack(InputStream archive, File destinationDir, ArchiveFormat format,
+                              ResourceBudget budget, ProgressTracker progress) throws IOException {
+        emptyDir(destinationDir);
+        try (archive) {
+            format.unpack(archive, destinationDir, new UnpackContext(budget, progress));
+            // formats may not read trailing data, such as the zip central directory
+            archive.transferTo(OutputStream.nullOutputStream());
+        }
+        return destinationDir;
+    }
+
+    /**
+     * Make sure the directory where an update is unpacked exists and is empty.
+     */
+    static File emptyDir(File destinationDir) throws IOException {
+        if (isCurrentApp(destinationDir)) {
+            throw new IOException("update destination is the running application: " + destinationDir);
+        }
         if (destinationDir.isDirectory()) {
             deleteContents(destinationDir);
         } else {
@@ -30,29 +74,34 @@ final class IoUtils {
                 throw new IOException("update destination directory cannot be created: " + destinationDir);
             }
         }
+        return destinationDir;
+    }
 
-        try (var zip = new ZipInputStream(
-                new BufferedInputStream(
-                        new FileInputStream(newVersionZipFile), 4096))) {
-            var zipEntry = zip.getNextEntry();
-            if (zipEntry == null) {
-                throw new IllegalStateException("Expected at least one entry in the zip file: " + newVersionZipFile);
-            }
-            var topEntryName = zipEntry.getName();
-            zipEntry = zip.getNextEntry();
-            while (zipEntry != null) {
-                var file = fileFor(zipEntry, destinationDir, topEntryName);
-                if (isDirectory(zipEntry)) {
-                    var ok = file.mkdir();
-                    if (!ok) throw new IOException("Cannot create new directory: " + file);
-                } else {
-                    Files.copy(zip, file.toPath());
-                }
-                zipEntry = zip.getNextEntry();
+    /**
+     * Write the contents of the given stream into a new file, limiting the write rate with the given limiter.
+     * The stream is not closed.
+     */
+    static void write(InputStream in, Path file, RateLimiter diskWrites) throws IOException {
+        if (diskWrites.isUnlimited()) {
+            Files.copy(in, file);
+        } else {
+            try (var out = diskWrites.limit(Files.newOutputStream(file, StandardOpenOption.CREATE_NEW))) {
+                in.transferTo(out);
             }
         }
+    }
 
-        return destinationDir;
+    /**
+     * Copy a file, limiting the write rate with the given limiter.
+     */
+    static void copyFile(Path source, Path destination, RateLimiter diskWrites) throws IOException {
+        if (diskWrites.isUnlimited()) {
+            Files.copy(source, destination, StandardCopyOption.COPY_ATTRIBUTES);
+        } else {
+            try (var in = Files.newInputStream(source)) {
+                write(in, destination, diskWrites);
+            }
+        }
     }
 
     static File unpackedApp(File home) {
@@ -63,65 +112,179 @@ final class IoUtils {
         return new File(System.getProperty("java.home"));
     }
 
-    private static File fileFor(ZipEntry zipEntry, File destinationDir, String topEntryName) {
+    static boolean isCurrentApp(File dir) {
+        return dir.getAbsoluteFile().toPath().normalize().equals(
+                currentApp().getAbsoluteFile().toPath().normalize());
+    }
+
+    static File fileFor(ZipEntry zipEntry, File destinationDir, String topEntryName) {
         return new File(destinationDir, zipEntry.getName().substring(topEntryName.length()));
     }
 
-    private static boolean isDirectory(ZipEntry zipEntry) {
+    static boolean isDirectory(ZipEntry zipEntry) {
         String name = zipEntry.getName();
         return name.endsWith("/") || name.endsWith("\\");
     }
 
+    /**
+     * Delete everything inside the given directory, deleting files concurrently.
+     * Directories are deleted after their contents, deepest first.
+     */
     static void deleteContents(File dir) throws IOException {
         var files = dir.listFiles();
         if (files == null) throw new IllegalArgumentException("Not a directory: " + dir);
 
+        var directories = new ArrayList<Path>();
+        var tasks = new ArrayList<Callable<Void>>();
         for (File file : files) {
             Files.walkFileTree(file.toPath(), new SimpleFileVisitor<>() {
                 @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    var ok = file.toFile().delete();
-                    if (!ok) throw new IOException("Unable to delete file: " + file);
-                    return super.visitFile(file, attrs);
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    tasks.add(() -> {
+                        Files.delete(file);
+                        return null;
+                    });
+                    return FileVisitResult.CONTINUE;
                 }
 
                 @Override
                 public FileVisitResult postVisitDirectory(Path directory, IOException exc) throws IOException {
-                    var ok = directory.toFile().delete();
-                    if (!ok) throw new IOException("Unable to delete directory: " + directory);
-                    return super.postVisitDirectory(directory, exc);
+                    if (exc != null) throw exc;
+                    directories.add(directory);
+                    return FileVisitResult.CONTINUE;
                 }
             });
         }
+
+        ParallelIo.runAll(tasks, ParallelIo.MAX_IO_THREADS, "delete", ResourceBudget.unlimited());
+
+        // post-order, so each directory is already empty when it's deleted
+        for (Path directory : directories) {
+            Files.delete(directory);
+        }
     }
 
+    /**
+     * Copy the source directory's contents into the destination directory.
+     * Directories are created first, in order, then files are copied concurrently.
+     */
     static void copy(File source, File destinationDir) throws IOException {
         Path srcPath = source.toPath();
         if (source.isFile()) {
             Files.copy(srcPath, destinationDir.toPath().resolve(srcPath));
         } else {
+            var tasks = new ArrayList<Callable<Void>>();
             Files.walkFileTree(srcPath, new SimpleFileVisitor<>() {
                 @Override
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
                     if (!srcPath.equals(dir)) {
-                        var newDir = new File(destinationDir, srcPath.relativize(dir).toFile().getPath());
-                        if (!newDir.exists()) {
-                            var ok = newDir.mkdir();
-                            if (!ok) {
-                                throw new IOException("Cannot create directory " + newDir);
-                            }
-                        }
+                        Files.createDirectories(destinationDir.toPath().resolve(srcPath.relativize(dir).toString()));
                     }
-                    return super.preVisitDirectory(dir, attrs);
+                    return FileVisitResult.CONTINUE;
                 }
 
                 @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    var newFile = destinationDir.toPath().resolve(srcPath.relativize(file).toFile().getPath());
-                    Files.copy(file, newFile);
-                    return super.visitFile(file, attrs);
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    var newFile = destinationDir.toPath().resolve(srcPath.relativize(file).toString());
+                    tasks.add(() -> {
+                        Files.copy(file, newFile);
+                        return null;
+                    });
+                    return FileVisitResult.CONTINUE;
                 }
             });
+            ParallelIo.runAll(tasks, ParallelIo.MAX_IO_THREADS, "copy", ResourceBudget.unlimited());
+        }
+    }
+
+    /**
+     * Make the destination directory identical to the source directory, writing only what changed.
+     * <p>
+     * Files that exist in both directories are compared by size first, then by contents, and are only
+     * overwritten if they differ. Files and directories that only exist in the destination are deleted.
+     *
+     * @return the number of files that were written or deleted
+     */
+    static int sync(File source, File destinationDir) throws IOException {
+        var srcPath = source.toPath();
+        var destPath = destinationDir.toPath();
+        var changes = new int[]{0};
+
+        // remove what no longer exists in the source first, so that files can be replaced by directories
+        Files.walkFileTree(destPath, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!destPath.equals(dir) && !Files.isDirectory(srcPath.resolve(destPath.relativize(dir)))) {
+                    changes[0] += deleteTree(dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return super.preVisitDirectory(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!Files.isRegularFile(srcPath.resolve(destPath.relativize(file)))) {
+                    Files.delete(file);
+                    changes[0]++;
+                }
+                return super.visitFile(file, attrs);
+            }
+        });
+
+        Files.walkFileTree(srcPath, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(destPath.resolve(srcPath.relativize(dir)));
+                return super.preVisitDirectory(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                var newFile = destPath.resolve(srcPath.relativize(file));
+                if (!Files.isRegularFile(newFile) || !sameContents(file, attrs.size(), newFile)) {
+                    Files.copy(file, newFile, StandardCopyOption.REPLACE_EXISTING);
+                    changes[0]++;
+                }
+                return super.visitFile(file, attrs);
+            }
+        });
+
+        return changes[0];
+    }
+
+    private static int deleteTree(Path dir) throws IOException {
+        var count = new int[]{0};
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                count[0]++;
+                return super.visitFile(file, attrs);
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException exc) throws IOException {
+                if (exc != null) throw exc;
+                Files.delete(directory);
+                return super.postVisitDirectory(directory, exc);
+            }
+        });
+        return count[0];
+    }
+
+    private static boolean sameContents(Path file, long size, Path other) throws IOException {
+        if (Files.size(other) != size) return false;
+        try (var in = Files.newInputStream(file); var otherIn = Files.newInputStream(other)) {
+            var buffer = new byte[8192];
+            var otherBuffer = new byte[8192];
+            while (true) {
+                var count = in.readNBytes(buffer, 0, buffer.length);
+                var otherCount = otherIn.readNBytes(otherBuffer, 0, otherBuffer.length);
+                if (count != otherCount || !Arrays.equals(buffer, 0, count, otherBuffer, 0, otherCount)) {
+                    return false;
+                }
+                if (count < buffer.length) return true;
+            }
         }
     }
 
@@ -2,6 +2,7 @@ package com.athaydes.keepup;
 
 import com.athaydes.keepup.api.KeepupException;
 import com.athaydes.keepup.api.UpdateInstaller;
+import com.athaydes.keepup.api.UpdateProgress;
 
 import java.io.File;
 import java.util.concurrent.CompletionStage;
@@ -15,16 +16,19 @@ public final class KeepupCallbacks {
     final Consumer<KeepupException> onError;
     final Runnable doneWithoutUpdate;
     final Consumer<UpdateInstaller> doneWithUpdate;
+    final Consumer<UpdateProgress> onProgress;
 
     public KeepupCallbacks(BiFunction<String, File, CompletionStage<Boolean>> onUpdate,
                            Runnable onNoUpdate,
                            Consumer<KeepupException> onError,
                            Runnable doneWithoutUpdate,
-                           Consumer<UpdateInstaller> doneWithUpdate) {
+                           Consumer<UpdateInstaller> doneWithUpdate,
+                           Consumer<UpdateProgress> onProgress) {
         this.onUpdate = onUpdate;
         this.onNoUpdate = onNoUpdate;
         this.onError = onError;
         this.doneWithoutUpdate = doneWithoutUpdate;
         this.doneWithUpdate = doneWithUpdate;
+        this.onProgress = onProgress;
     }
 }
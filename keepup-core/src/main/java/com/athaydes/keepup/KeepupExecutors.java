@@ -0,0 +1,254 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ResourceBudget;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The default executor of Keepup (see {@link com.athaydes.keepup.api.KeepupConfig#executor()}).
+ * <p>
+ * On Java 21 and later, each task runs on a new virtual Thread, so an idle Keepup instance holds no Threads at all.
+ * On earlier versions, or if the {@link ResourceBudget} requires background priority (which virtual Threads do not
+ * support), tasks run on a small pool of daemon Threads shared by all Keepup instances, which are stopped after
+ * a while without work.
+ * <p>
+ * Either way, the executor of each instance can be shut down without affecting the others, and its Threads never
+ * stop the application from exiting.
+ */
+public final class KeepupExecutors {
+
+    /**
+     * Initial maximum number of Threads in the shared pool, i.e. of update cycles running at the same time
+     * in the process.
+     */
+    static final int SHARED_POOL_SIZE = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    // Executors.newVirtualThreadPerTaskExecutor() is only available on Java 21+
+    private static final Optional<Method> newVirtualThreadPerTaskExecutor = findVirtualThreadFactory();
+
+    private KeepupExecutors() {
+    }
+
+    public static ExecutorService newDefaultExecutor(ResourceBudget budget) {
+        if (!budget.isBackgroundPriority() && newVirtualThreadPerTaskExecutor.isPresent()) {
+            try {
+                return (ExecutorService) newVirtualThreadPerTaskExecutor.get().invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // fall back to the shared pool
+            }
+        }
+        return new SharedPoolExecutor(SharedPool.INSTANCE, budget);
+    }
+
+    /**
+     * Make sure the shared pool can run at least the given number of tasks at the same time, so that update
+     * cycles of that many applications do not wait for each other (see
+     * {@link com.athaydes.keepup.api.KeepupRegistry}). The pool never shrinks, but its idle Threads still stop.
+     *
+     * @param threads minimum number of Threads of the shared pool
+     */
+    public static void ensureSharedPoolSize(int threads) {
+        var pool = SharedPool.INSTANCE;
+        synchronized (pool) {
+            if (threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            }
+        }
+    }
+
+    private static Optional<Method> findVirtualThreadFactory() {
+        if (Runtime.version().feature() < 21) return Optional.empty();
+        try {
+            return Optional.of(Executors.class.getMethod("newVirtualThreadPerTaskExecutor"));
+        } catch (NoSuchMethodException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static final class SharedPool {
+        static final ThreadPoolExecutor INSTANCE = create();
+
+        private static ThreadPoolExecutor create() {
+            var count = new AtomicInteger();
+            var pool = new ThreadPoolExecutor(SHARED_POOL_SIZE, SHARED_POOL_SIZE,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                var thread = new Thread(runnable, "keepup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * The view of the shared pool given to one Keepup instance, which tracks its own tasks so that it can be
+     * shut down independently. Tasks run with the Thread priority of the instance's {@link ResourceBudget}.
+     */
+    private static final class SharedPoolExecutor extends AbstractExecutorService {
+
+        private final ThreadPoolExecutor pool;
+        private final ResourceBudget budget;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition terminated = lock.newCondition();
+        private final Set<Task> tasks = new HashSet<>();
+        private boolean isShutdown;
+
+        SharedPoolExecutor(ThreadPoolExecutor pool, ResourceBudget budget) {
+            this.pool = pool;
+            this.budget = budget;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            var task = new Task(command);
+            lock.lock();
+            try {
+                if (isShutdown) {
+                    throw new RejectedExecutionException("Keepup executor has been shut down");
+                }
+                tasks.add(task);
+            } finally {
+                lock.unlock();
+            }
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                finished(task);
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            lock.lock();
+            try {
+                isShutdown = true;
+                if (tasks.isEmpty()) terminated.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            var notStarted = new ArrayList<Runnable>();
+            lock.lock();
+            try {
+                isShutdown = true;
+                for (var iterator = tasks.iterator(); iterator.hasNext(); ) {
+                    var task = iterator.next();
+                    if (task.thread == null) {
+                        iterator.remove();
+                        pool.remove(task);
+                        notStarted.add(task.command);
+                    } else {
+                        task.thread.interrupt();
+                    }
+                }
+                if (tasks.isEmpty()) terminated.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return notStarted;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            lock.lock();
+            try {
+                return isShutdown;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            lock.lock();
+            try {
+                return isShutdown && tasks.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            var nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (!(isShutdown && tasks.isEmpty())) {
+                    if (nanos <= 0L) return false;
+                    nanos = terminated.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean started(Task task) {
+            lock.lock();
+            try {
+                // tasks removed by shutdownNow() must not run
+                if (!tasks.contains(task)) return false;
+                task.thread = Thread.currentThread();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void finished(Task task) {
+            lock.lock();
+            try {
+                tasks.remove(task);
+                if (isShutdown && tasks.isEmpty()) terminated.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private final class Task implements Runnable {
+            final Runnable command;
+            Thread thread; // guarded by lock
+
+            Task(Runnable command) {
+                this.command = command;
+            }
+
+            @Override
+            public void run() {
+                if (!started(this)) return;
+                var currentThread = Thread.currentThread();
+                var priority = currentThread.getPriority();
+                budget.configure(currentThread);
+                try {
+                    command.run();
+                } finally {
+                    currentThread.setPriority(priority);
+                    finished(this);
+                }
+            }
+        }
+    }
+}
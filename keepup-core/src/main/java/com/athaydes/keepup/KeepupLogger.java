@@ -1,25 +1,30 @@
 package com.athaydes.keepup;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
+/**
+ * Keepup's log.
+ * <p>
+ * Messages are written to the log file in the background (see {@link LogWriter}), so logging never blocks.
+ */
 public final class KeepupLogger {
     private final Path logFile;
 
     public KeepupLogger(Path logFile) {
-        this.logFile = logFile;
+        this.logFile = logFile.toAbsolutePath().normalize();
     }
 
     public void log(String msg) {
-        try {
-            Files.writeString(logFile, System.currentTimeMillis() + " - " + msg + "\n",
-                    StandardOpenOption.APPEND, StandardOpenOption.CREATE);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        LogWriter.get().append(logFile, System.currentTimeMillis() + " - " + msg + "\n");
+    }
+
+    /**
+     * Wait until the messages logged so far have been written to the log file, e.g. before another process
+     * writes to it.
+     */
+    public void flush() {
+        LogWriter.get().flush();
     }
 
     public File getLogFile() {
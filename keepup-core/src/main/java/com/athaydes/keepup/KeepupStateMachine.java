@@ -1,189 +1,214 @@
 package com.athaydes.keepup;
 
-import com.athaydes.keepup.api.AppDistributor;
-import com.athaydes.keepup.api.AppVersion;
 import com.athaydes.keepup.api.KeepupConfig;
 import com.athaydes.keepup.api.KeepupException;
 import com.athaydes.keepup.api.UpdateInstaller;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
-
-import static com.athaydes.keepup.IoUtils.currentApp;
-import static com.athaydes.keepup.IoUtils.looksLikeJlinkApp;
-import static com.athaydes.keepup.IoUtils.setFilePermissions;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.CANNOT_REMOVE_UPDATE_ZIP;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.CREATE_UPDATE_SCRIPT;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.CURRENT_NOT_JLINK_APP;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.athaydes.keepup.Stage.Kind.CALLBACK;
 import static com.athaydes.keepup.api.KeepupException.ErrorCode.DONE_CALLBACK;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.DOWNLOAD;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.LATEST_VERSION_CHECK;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.NO_UPDATE_CALLBACK;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.UNPACK;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.UPDATE_NOT_JLINK_APP;
-import static com.athaydes.keepup.api.KeepupException.ErrorCode.VERIFY_UPDATE;
 
+/**
+ * Runs a Keepup update cycle as a pipeline of {@link UpdateStages}.
+ * <p>
+ * This class only decides which stage runs next, based on the result of the previous one.
+ * The {@link StageRunner} decides where each stage runs.
+ * <p>
+ * Only one cycle at a time runs in a Keepup home directory, even across processes (see {@link AppHomeLock}).
+ * A cycle that had to wait for another one reuses its outcome instead of checking for updates again.
+ * Updates are unpacked and staged before the application is asked to verify them, so that other cycles
+ * do not wait for it.
+ * <p>
+ * The result of the cycle completes just before the final callbacks are invoked. If the cycle is cancelled
+ * or times out, that happens once the Thread running the stage in progress has stopped, so that the partial
+ * update is only deleted, and another cycle only allowed to start, when nothing writes to it anymore.
+ * If the Thread does not stop within {@link #STAGE_STOP_TIMEOUT}, the cycle ends anyway, but the partial update is
+ * only deleted, and the Keepup home only released, when it does.
+ */
 public final class KeepupStateMachine {
 
-    private static final AtomicBoolean isFirstRun = new AtomicBoolean(true);
+    static final Duration STAGE_STOP_TIMEOUT = Duration.ofSeconds(5);
 
     private final KeepupConfig config;
     private final KeepupCallbacks callbacks;
     private final KeepupLogger log;
-    private final ExecutorService executor;
+    private final Cancellation cancellation;
+    private final StageRunner runner;
+    private final UpdateStages stages;
+    private final CompletableFuture<Optional<UpdateInstaller>> result = new CompletableFuture<>();
 
     public KeepupStateMachine(KeepupConfig config, KeepupCallbacks callbacks) {
         this.config = config;
         this.callbacks = callbacks;
-        this.executor = config.executor();
         this.log = new KeepupLogger(config.keepupLog());
+        this.cancellation = new Cancellation();
+        this.runner = StageRunner.of(config.executor(), log, cancellation);
+        this.stages = new UpdateStages(config, callbacks, log, cancellation);
     }
 
-    public void start() {
-        executor.submit(() -> {
-            if (isFirstRun.getAndSet(false)) {
-                log.log("First run");
-                File unpackedApp = IoUtils.unpackedApp(config.appHome());
-                if (unpackedApp.isDirectory()) {
-                    // we have just updated and not cleaned up yet
-                    cleanupPreviousUpdate(unpackedApp);
-                    noUpdate();
-                    return;
-                }
-            }
-            var appLocation = currentApp();
-            if (looksLikeJlinkApp(appLocation, config.appName())) {
-                checkForUpdate();
-            } else {
-                endWithError(new KeepupException(CURRENT_NOT_JLINK_APP, "Home: " + appLocation));
-            }
-        });
+    /**
+     * Start the update cycle.
+     *
+     * @return the result of the cycle: the installer if an update is ready, empty if there was no update
+     * or it was rejected. It fails with a {@link KeepupException} if the cycle failed.
+     */
+    public CompletableFuture<Optional<UpdateInstaller>> start() {
+        runner.run(stages.lead, null)
+                .thenCompose(shared -> runner.run(stages.prepare, null).thenCompose(proceed -> {
+                    if (!proceed) return noUpdate();
+                    // another process has just completed this cycle
+                    if (shared.isPresent()) return reuse(shared.get());
+                    return runner.run(stages.findVersion, config.distributor())
+                            .thenCompose(candidate -> candidate.isPresent()
+                                    ? update(candidate.get())
+                                    : noUpdate());
+                }))
+                // an aborted stage may not stop when interrupted, which must not keep the cycle from ending
+                .applyToEither(runner.aborted().thenApply(ignore -> Optional.<UpdateInstaller>empty()),
+                        Function.identity())
+                .whenComplete((installer, error) -> {
+                    var stopped = cancellation.stopped();
+                    stopped.copy()
+                            .completeOnTimeout(null, STAGE_STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                            .thenRun(() -> runner.runFinally(done(installer, error, stopped), null));
+                });
+        return result;
     }
 
-    private void checkForUpdate() {
-        executor.submit(() -> {
-            log.log("Checking for update");
-            try {
-                findVersion(config.distributor());
-            } catch (Exception e) {
-                endWithError(new KeepupException(LATEST_VERSION_CHECK, e));
-            }
-        });
+    /**
+     * Cancel the update cycle, interrupting the stage in progress and removing the partial update.
+     * The cycle completes once the stage has stopped.
+     *
+     * @return false if the cycle had already completed, or was already ending
+     */
+    public boolean cancel() {
+        if (result.isDone()) return false;
+        log.log("Cancelling update cycle");
+        return runner.abort(new CancellationException("Update cycle cancelled"));
     }
 
-    private <V extends AppVersion> void findVersion(
-            AppDistributor<V> distributor) throws Exception {
-        distributor.findLatestVersion().whenComplete((version, error) -> {
-            executor.submit(() -> {
-                if (error == null) {
-                    version.ifPresentOrElse(v -> {
-                        invokeDownload(v.name(), () -> distributor.download(v));
-                    }, this::noUpdate);
-                } else {
-                    endWithError(new KeepupException(LATEST_VERSION_CHECK, error));
-                }
-            });
-        });
+    private CompletableFuture<Optional<UpdateInstaller>> noUpdate() {
+        return runner.run(stages.noUpdate, null).thenApply(ignore -> Optional.empty());
     }
 
-    private void cleanupPreviousUpdate(File unpackedApp) {
-        log.log("Cleaning up previous update");
-        try {
-            IoUtils.deleteContents(unpackedApp);
-            Files.delete(unpackedApp.toPath());
-        } catch (IOException e) {
-            // ignore error
-            log.log("ERROR: " + e);
-        }
+    // updates staged by another cycle have already been prepared
+    private CompletableFuture<Optional<UpdateInstaller>> reuse(UpdateStages.SharedOutcome shared) {
+        return shared.update.isPresent()
+                ? verify(shared.update.get(), this::install)
+                : noUpdate();
     }
 
-    private void noUpdate() {
-        log.log("No update available");
-        try {
-            callbacks.onNoUpdate.run();
-            endEarly();
-        } catch (Exception e) {
-            endWithError(new KeepupException(NO_UPDATE_CALLBACK, e));
+    private CompletableFuture<Optional<UpdateInstaller>> update(UpdateStages.Candidate<?> candidate) {
+        return runner.run(stages.findStaged, candidate).thenCompose(staged -> staged.isPresent()
+                ? verify(staged.get(), this::install)
+                : download(candidate));
+    }
+
+    private CompletableFuture<Optional<UpdateInstaller>> download(UpdateStages.Candidate<?> candidate) {
+        return deltaUpdate(candidate)
+                .thenCompose(delta -> delta.isPresent()
+                        ? CompletableFuture.completedFuture(delta.get())
+                        : runner.run(stages.download, candidate))
+                .thenCompose(update -> update.isUnpacked()
+                        ? unpackedUpdate(update)
+                        : archivedUpdate(update));
+    }
+
+    private CompletableFuture<Optional<UpdateStages.Update>> deltaUpdate(UpdateStages.Candidate<?> candidate) {
+        if (!candidate.isDelta()) {
+            return CompletableFuture.completedFuture(Optional.empty());
         }
+        return runner.run(stages.planDelta, candidate).thenCompose(plan -> plan.isPresent()
+                ? runner.run(stages.assembleDelta, plan.get())
+                : CompletableFuture.completedFuture(Optional.empty()));
     }
 
-    private void invokeDownload(String newVersion, Callable<File> download) {
-        executor.submit(() -> {
-            log.log("Downloading version " + newVersion);
-            try {
-                var zip = download.call();
-                verifyUpdate(newVersion, zip);
-            } catch (Exception e) {
-                endWithError(new KeepupException(DOWNLOAD, e));
-            }
-        });
+    // updates unpacked while downloading, or assembled from a delta, are checked before the application sees them
+    private CompletableFuture<Optional<UpdateInstaller>> unpackedUpdate(UpdateStages.Update update) {
+        return runner.run(stages.prepareImage, update)
+                .thenCompose(image -> verify(image, this::install));
     }
 
-    private void verifyUpdate(String newVersion, File zip) {
-        executor.submit(() -> {
-            log.log("Verifying update");
-            try {
-                callbacks.onUpdate.apply(newVersion, zip).whenComplete((continueUpdate, error) -> {
-                    if (error != null) {
-                        endWithError(new KeepupException(VERIFY_UPDATE, error));
-                    } else if (continueUpdate) {
-                        unpackNewVersion(zip);
-                    } else {
-                        log.log("Update rejected");
-                        zip.delete();
-                        endEarly();
-                    }
-                });
-            } catch (Exception e) {
-                endWithError(new KeepupException(VERIFY_UPDATE, e));
-            }
-        });
+    private CompletableFuture<Optional<UpdateInstaller>> archivedUpdate(UpdateStages.Update update) {
+        return runner.run(stages.unpack, update)
+                .thenCompose(unpacked -> runner.run(stages.prepareImage, unpacked))
+                .thenCompose(image -> verify(image, this::install));
     }
 
-    private void unpackNewVersion(File zip) {
-        executor.submit(() -> {
-            log.log("Unpacking update");
-            try {
-                var newVersionDir = IoUtils.unpack(zip, config.appHome());
-                if (looksLikeJlinkApp(newVersionDir, config.appName())) {
-                    setFilePermissions(newVersionDir, config.appName());
-                    createInstaller(zip);
+    private CompletableFuture<Optional<UpdateInstaller>> verify(
+            UpdateStages.Update update,
+            Function<UpdateStages.Update, CompletableFuture<Optional<UpdateInstaller>>> next) {
+        return runner.run(stages.verifyUpdate, update).thenCompose(accepted -> accepted
+                ? next.apply(update)
+                : runner.run(stages.discard, update).thenApply(ignore -> Optional.empty()));
+    }
+
+    private CompletableFuture<Optional<UpdateInstaller>> install(UpdateStages.Update update) {
+        return runner.run(stages.createInstaller, update).thenApply(Optional::of);
+    }
+
+    private Stage<Void, Void> done(Optional<UpdateInstaller> installer, Throwable error,
+                                   CompletableFuture<Void> stopped) {
+        return Stage.of("done", CALLBACK, DONE_CALLBACK, ignore -> {
+            if (cancellation.isCancelled()) {
+                cancelled(stopped);
+            } else if (error != null) {
+                var cause = StageRunner.unwrap(error);
+                var keepupError = cause instanceof KeepupException
+                        ? (KeepupException) cause
+                        : new KeepupException(DONE_CALLBACK, cause);
+                var aborted = cancellation.isAborted();
+                afterStagesStop(stopped, () -> {
+                    if (aborted) {
+                        stages.discardPartialUpdate(false);
+                    }
+                });
+                result.completeExceptionally(keepupError);
+                endWithError(keepupError);
+            } else {
+                stages.releaseHome();
+                result.complete(installer);
+                if (installer.isPresent()) {
+                    success(installer.get());
                 } else {
-                    endWithError(new KeepupException(UPDATE_NOT_JLINK_APP,
-                            "Update location: " + newVersionDir));
+                    endEarly();
                 }
-            } catch (Exception e) {
-                endWithError(new KeepupException(UNPACK, e));
             }
+            return null;
         });
     }
 
-    private void createInstaller(File zip) {
-        executor.submit(() -> {
-            log.log("Creating installer");
+    private void cancelled(CompletableFuture<Void> stopped) {
+        log.log("Update cycle cancelled");
+        afterStagesStop(stopped, () -> stages.discardPartialUpdate(true));
+        result.cancel(false);
+        endEarly();
+    }
+
+    /**
+     * Clean up and let other cycles run, but only once no stage of this cycle is running, as an interrupted
+     * stage may still be writing the update.
+     */
+    private void afterStagesStop(CompletableFuture<Void> stopped, Runnable cleanup) {
+        Runnable cleanupAndRelease = () -> {
             try {
-                var installer = InstallerCreator.create(config);
-                if (zip.delete()) {
-                    log.log("Update successful");
-                    success(installer);
-                } else {
-                    endWithError(new KeepupException(CANNOT_REMOVE_UPDATE_ZIP,
-                            "Location: " + zip));
-                }
-            } catch (Exception e) {
-                KeepupException error;
-                if (e instanceof KeepupException) {
-                    error = (KeepupException) e;
-                } else {
-                    error = new KeepupException(CREATE_UPDATE_SCRIPT, e);
-                }
-                endWithError(error);
+                cleanup.run();
+            } finally {
+                stages.releaseHome();
             }
-        });
+        };
+        if (stopped.isDone()) {
+            cleanupAndRelease.run();
+        } else {
+            log.log("A stage is still running, the update will be cleaned up once it stops");
+            stopped.thenRun(cleanupAndRelease);
+        }
     }
 
     private void endEarly() {
@@ -194,6 +219,7 @@ public final class KeepupStateMachine {
             callbacks.onError.accept(new KeepupException(DONE_CALLBACK, e));
         } finally {
             log.log("DONE");
+            log.flush();
         }
     }
 
@@ -214,6 +240,7 @@ public final class KeepupStateMachine {
             callbacks.onError.accept(new KeepupException(DONE_CALLBACK, e));
         } finally {
             log.log("DONE");
+            log.flush();
         }
     }
 }
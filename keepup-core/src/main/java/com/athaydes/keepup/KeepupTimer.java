@@ -0,0 +1,36 @@
+package com.athaydes.keepup;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * A single daemon Thread, shared by all Keepup instances, that runs stage deadlines, HTTP body
+ * timeouts and scheduled update checks.
+ * <p>
+ * Timed tasks should hand work over to an executor rather than block this Thread.
+ */
+public final class KeepupTimer {
+
+    private KeepupTimer() {
+    }
+
+    public static ScheduledExecutorService get() {
+        return Holder.INSTANCE;
+    }
+
+    // only initialized when first used
+    private static final class Holder {
+        static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            var timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                var thread = new Thread(runnable, "keepup-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // most stages complete before their deadline, don't keep their timeouts around
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.athaydes.keepup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the messages of all {@link KeepupLogger}s in a background Thread.
+ * <p>
+ * Logging a message only adds it to a queue, so it never waits for the file system. The writer Thread writes all
+ * messages queued for a log file at once, through a channel that is kept open until the Thread is idle, and rotates
+ * the file when it gets too large or too old, keeping the previous files as {@code <log>.1}, {@code <log>.2}, etc.
+ * Queued messages are written when the JVM shuts down.
+ */
+final class LogWriter {
+
+    static final long MAX_FILE_SIZE = 1024L * 1024L;
+    static final Duration MAX_FILE_AGE = Duration.ofDays(30);
+    static final int MAX_BACKUPS = 3;
+
+    private static final int MAX_QUEUED_MESSAGES = 10_000;
+    private static final long IDLE_MILLIS = 10_000L;
+    private static final long FLUSH_TIMEOUT_MILLIS = 2_000L;
+
+    private static final LogWriter INSTANCE = new LogWriter();
+
+    /**
+     * A message to write to a log file, or a request to signal when all messages queued before it are written.
+     */
+    private static final class Entry {
+        final Path logFile;
+        final String text;
+        final CountDownLatch written;
+
+        Entry(Path logFile, String text, CountDownLatch written) {
+            this.logFile = logFile;
+            this.text = text;
+            this.written = written;
+        }
+    }
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>(MAX_QUEUED_MESSAGES);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Map<Path, LogFile> files = new HashMap<>(); // only used by the writer Thread
+    private volatile boolean shutdown;
+
+    private LogWriter() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // messages logged from now on are written directly, as the writer Thread may not get to run again
+            shutdown = true;
+            flush();
+        }, "keepup-log-shutdown"));
+    }
+
+    static LogWriter get() {
+        return INSTANCE;
+    }
+
+    void append(Path logFile, String text) {
+        if (shutdown) {
+            writeDirectly(logFile, text);
+            return;
+        }
+        var entry = new Entry(logFile, text, null);
+        if (queue.offer(entry)) {
+            ensureRunning();
+            return;
+        }
+        // the writer Thread is far behind, so this Thread waits for it rather than reordering messages
+        ensureRunning();
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeDirectly(logFile, text);
+        }
+    }
+
+    /**
+     * Wait until all messages logged so far are written, or a timeout elapses.
+     */
+    void flush() {
+        var entry = new Entry(null, null, new CountDownLatch(1));
+        ensureRunning();
+        try {
+            if (queue.offer(entry, FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                entry.written.await(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void ensureRunning() {
+        if (running.compareAndSet(false, true)) {
+            var thread = new Thread(this::run, "keepup-log");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<Entry>();
+        while (true) {
+            Entry first;
+            try {
+                first = queue.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = null;
+            }
+            if (first == null) {
+                closeAll();
+                running.set(false);
+                // a message may have been queued just before the flag was cleared
+                if (queue.isEmpty() || !running.compareAndSet(false, true)) return;
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        var textByFile = new LinkedHashMap<Path, StringBuilder>();
+        for (var entry : batch) {
+            if (entry.logFile != null) {
+                textByFile.computeIfAbsent(entry.logFile, ignore -> new StringBuilder()).append(entry.text);
+            }
+        }
+        textByFile.forEach((logFile, text) -> {
+            var file = files.computeIfAbsent(logFile, LogFile::new);
+            try {
+                file.write(text.toString());
+            } catch (IOException e) {
+                e.printStackTrace();
+                file.close();
+            }
+        });
+        for (var entry : batch) {
+            if (entry.written != null) entry.written.countDown();
+        }
+    }
+
+    private void closeAll() {
+        files.values().forEach(LogFile::close);
+        files.clear();
+    }
+
+    private static void writeDirectly(Path logFile, String text) {
+        try {
+            Files.writeString(logFile, text, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final class LogFile {
+        private final Path path;
+        private FileChannel channel;
+        private Object fileKey;
+        private long size;
+        private long startedAt;
+
+        LogFile(Path path) {
+            this.path = path;
+        }
+
+        void write(String text) throws IOException {
+            if (channel == null || !isCurrent()) {
+                open();
+            }
+            if (size > 0 && (size >= MAX_FILE_SIZE ||
+                    System.currentTimeMillis() - startedAt >= MAX_FILE_AGE.toMillis())) {
+                rotate();
+                open();
+            }
+            var buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer);
+            }
+        }
+
+        void close() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            } finally {
+                channel = null;
+            }
+        }
+
+        // another process may have rotated the file
+        private boolean isCurrent() {
+            if (fileKey == null) return true;
+            try {
+                return Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void open() throws IOException {
+            close();
+            var parent = path.getParent();
+            if (parent != null) Files.createDirectories(parent);
+            channel = FileChannel.open(path, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            fileKey = attributes.fileKey();
+            size = channel.size();
+            startedAt = size == 0 ? System.currentTimeMillis() : firstTimestamp(attributes);
+        }
+
+        // each message starts with the time it was logged, which is more reliable than the file creation time
+        private long firstTimestamp(BasicFileAttributes attributes) {
+            try (InputStream in = Files.newInputStream(path)) {
+                var start = new String(in.readNBytes(20), StandardCharsets.US_ASCII);
+                var end = start.indexOf(" - ");
+                if (end > 0) return Long.parseLong(start.substring(0, end));
+            } catch (IOException | NumberFormatException e) {
+                // use the creation time
+            }
+            return attributes.creationTime().toMillis();
+        }
+
+        private void rotate() throws IOException {
+            close();
+            for (int i = MAX_BACKUPS - 1; i >= 1; i--) {
+                try {
+                    Files.move(backup(i), backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                } catch (NoSuchFileException e) {
+                    // fewer backups than the maximum so far
+                }
+            }
+            try {
+                Files.move(path, backup(1), StandardCopyOption.REPLACE_EXISTING);
+            } catch (NoSuchFileException e) {
+                // another process has rotated it
+            }
+        }
+
+        private Path backup(int index) {
+            return path.resolveSibling(path.getFileName() + "." + index);
+        }
+    }
+}
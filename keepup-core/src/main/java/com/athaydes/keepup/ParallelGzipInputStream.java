@@ -0,0 +1,215 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ParallelGzip;
+import com.athaydes.keepup.api.ResourceBudget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a gzip file created by {@link ParallelGzip}, decompressing several members concurrently.
+ * <p>
+ * Members are decompressed ahead of the reader, but only a few at a time, so memory usage is bounded
+ * regardless of the size of the file. Decompressed members are returned in order.
+ */
+final class ParallelGzipInputStream extends InputStream {
+
+    private static final int FIXED_HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+    private static final int MAX_MEMBER_SIZE = 128 * 1024 * 1024;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ExecutorService pool;
+    private final int window;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private long nextMemberOffset;
+    private byte[] current = new byte[0];
+    private int currentPosition;
+
+    private ParallelGzipInputStream(FileChannel channel, int threads, ResourceBudget budget) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.pool = ParallelIo.newPool(threads, "gunzip", budget);
+        this.window = 2 * threads;
+    }
+
+    /**
+     * @return whether the given file looks like it was created by {@link ParallelGzip}, i.e. its first gzip
+     * member has the size of the member in its header.
+     */
+    static boolean isIndexed(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return memberSize(channel, 0L) > 0;
+        }
+    }
+
+    static ParallelGzipInputStream open(Path file, int threads, ResourceBudget budget) throws IOException {
+        return new ParallelGzipInputStream(FileChannel.open(file, StandardOpenOption.READ), threads, budget);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) return -1;
+        return current[currentPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!ensureAvailable()) return -1;
+        var count = Math.min(len, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, b, off, count);
+        currentPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        channel.close();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (currentPosition >= current.length) {
+            fillWindow();
+            if (pending.isEmpty()) return false;
+            current = next();
+            currentPosition = 0;
+        }
+        return true;
+    }
+
+    private void fillWindow() throws IOException {
+        while (pending.size() < window && nextMemberOffset < fileSize) {
+            var size = memberSize(channel, nextMemberOffset);
+            if (size <= 0) {
+                throw new IOException("gzip member at offset " + nextMemberOffset + " does not have its size " +
+                        "in its header, the file was not compressed with ParallelGzip");
+            }
+            if (nextMemberOffset + size > fileSize) {
+                throw new IOException("Unexpected end of gzip file");
+            }
+            var member = read(channel, nextMemberOffset, size);
+            pending.add(pool.submit(() -> inflate(member)));
+            nextMemberOffset += size;
+        }
+    }
+
+    private byte[] next() throws IOException {
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Decompression interrupted", e);
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            throw cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException("Decompression failed", cause);
+        }
+    }
+
+    /**
+     * @return the size of the member at the given offset, or -1 if it does not have a KP extra field
+     */
+    private static int memberSize(FileChannel channel, long offset) throws IOException {
+        if (channel.size() - offset < FIXED_HEADER_SIZE) return -1;
+        var header = read(channel, offset, FIXED_HEADER_SIZE);
+        if (header.get(0) != 0x1f || header.get(1) != (byte) 0x8b || header.get(2) != 8
+                || (header.get(3) & FEXTRA) == 0) {
+            return -1;
+        }
+        var extraLength = Short.toUnsignedInt(header.getShort(10));
+        if (channel.size() - offset < FIXED_HEADER_SIZE + extraLength) return -1;
+        var extra = read(channel, offset + FIXED_HEADER_SIZE, extraLength);
+        while (extra.remaining() >= 4) {
+            var id1 = extra.get();
+            var id2 = extra.get();
+            var length = Short.toUnsignedInt(extra.getShort());
+            if (id1 == 'K' && id2 == 'P' && length == 4 && extra.remaining() >= 4) {
+                var size = extra.getInt();
+                return size > 0 && size <= MAX_MEMBER_SIZE ? size : -1;
+            }
+            if (extra.remaining() < length) break;
+            extra.position(extra.position() + length);
+        }
+        return -1;
+    }
+
+    private static byte[] inflate(ByteBuffer member) throws IOException {
+        var size = member.limit();
+        var flags = member.get(3);
+        var position = FIXED_HEADER_SIZE + Short.toUnsignedInt(member.getShort(10));
+        if ((flags & FNAME) != 0) position = skipString(member, position);
+        if ((flags & FCOMMENT) != 0) position = skipString(member, position);
+        if ((flags & FHCRC) != 0) position += 2;
+
+        var expectedCrc = Integer.toUnsignedLong(member.getInt(size - TRAILER_SIZE));
+        var uncompressedSize = member.getInt(size - 4);
+        if (uncompressedSize < 0 || uncompressedSize > MAX_MEMBER_SIZE) {
+            throw new IOException("Invalid gzip member size: " + Integer.toUnsignedLong(uncompressedSize));
+        }
+
+        var result = new byte[uncompressedSize];
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(member.array(), position, size - TRAILER_SIZE - position);
+            var count = 0;
+            while (count < result.length && !inflater.finished()) {
+                var inflated = inflater.inflate(result, count, result.length - count);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated gzip member");
+                }
+                count += inflated;
+            }
+            if (count != result.length) {
+                throw new IOException("gzip member is shorter than its declared size");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid gzip data", e);
+        } finally {
+            inflater.end();
+        }
+
+        var crc = new CRC32();
+        crc.update(result);
+        if (crc.getValue() != expectedCrc) {
+            throw new IOException("gzip member CRC mismatch");
+        }
+        return result;
+    }
+
+    private static int skipString(ByteBuffer member, int position) {
+        while (member.get(position) != 0) position++;
+        return position + 1;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of gzip file");
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,74 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ResourceBudget;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs I/O tasks on a bounded pool of daemon threads, reporting all errors together.
+ */
+final class ParallelIo {
+
+    /**
+     * Maximum number of threads used for tasks that mostly wait on the file system, which benefit from
+     * concurrency even on a single core (e.g. on network drives).
+     */
+    static final int MAX_IO_THREADS = 8;
+
+    /**
+     * Run all tasks, waiting for all of them to complete.
+     *
+     * @param tasks      to run
+     * @param maxThreads maximum number of threads to use
+     * @param name       of the threads, also used in the error message
+     * @param budget     resource budget whose priority is used for the threads
+     * @throws IOException with the first error as its cause and any other errors as suppressed exceptions
+     */
+    static <T> void runAll(List<? extends Callable<T>> tasks, int maxThreads,
+                       String name, ResourceBudget budget) throws IOException {
+        if (tasks.isEmpty()) return;
+        var threads = Math.max(1, Math.min(tasks.size(), maxThreads));
+        var pool = newPool(threads, name, budget);
+        List<Future<T>> results;
+        try {
+            results = pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(name + " interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        IOException error = null;
+        for (var result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException | InterruptedException e) {
+                var cause = e instanceof ExecutionException ? e.getCause() : e;
+                if (error == null) {
+                    error = new IOException(name + " failed: " + cause.getMessage(), cause);
+                } else {
+                    error.addSuppressed(cause);
+                }
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    /**
+     * Create a pool of daemon threads whose priority is given by the resource budget.
+     */
+    static ExecutorService newPool(int threads, String name, ResourceBudget budget) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = budget.configure(new Thread(runnable, "keepup-" + name));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
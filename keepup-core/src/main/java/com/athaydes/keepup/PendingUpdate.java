@@ -0,0 +1,168 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.InstallerArgs;
+import com.athaydes.keepup.api.KeepupConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Properties;
+
+import static com.athaydes.keepup.IoUtils.currentApp;
+import static com.athaydes.keepup.IoUtils.looksLikeJlinkApp;
+
+/**
+ * An update that is ready to be activated the next time the application starts
+ * (see {@link com.athaydes.keepup.api.UpdateInstaller#installOnNextLaunch()}).
+ * <p>
+ * Marking an update as ready only writes a small file to the Keepup home directory. On the next start,
+ * {@link com.athaydes.keepup.api.KeepupBootstrap} activates the update and runs it instead of the current version:
+ * a versioned install only needs its {@code current} link switched, other installs are replaced by the installer
+ * first, as with {@link com.athaydes.keepup.api.UpdateInstaller#quitAndLaunchUpdatedApp()}.
+ */
+public final class PendingUpdate {
+
+    static final String READY_FILE = "keepup-ready.properties";
+
+    private static final String APP_NAME = "appName";
+    private static final String NEW_VERSION = "newVersion";
+    private static final String VERSIONED = "versioned";
+    private static final String SYNC = "sync";
+    private static final String LOG = "log";
+
+    private PendingUpdate() {
+    }
+
+    static void markReady(KeepupConfig config, File newVersionDir, KeepupLogger log) {
+        var ready = new Properties();
+        ready.setProperty(APP_NAME, config.appName());
+        ready.setProperty(NEW_VERSION, newVersionDir.getAbsolutePath());
+        ready.setProperty(VERSIONED, Boolean.toString(config.versionedInstall()));
+        ready.setProperty(SYNC, Boolean.toString(config.syncInstall()));
+        ready.setProperty(LOG, config.keepupLog().toAbsolutePath().toString());
+        var readyFile = new File(config.appHome(), READY_FILE);
+        try {
+            var tempFile = new File(config.appHome(), READY_FILE + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+                ready.store(out, null);
+            }
+            Files.move(tempFile.toPath(), readyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.log("Update will be installed the next time the application starts");
+        } catch (IOException e) {
+            log.log("ERROR: " + e);
+        }
+    }
+
+    /**
+     * Forget the update marked as ready, if it is in the given directory, which is about to be overwritten.
+     */
+    static void discard(File appHome, File newVersionDir, KeepupLogger log) {
+        var readyFile = new File(appHome, READY_FILE);
+        if (!readyFile.isFile()) return;
+        var ready = load(readyFile);
+        if (ready == null || newVersionDir.getAbsolutePath().equals(ready.getProperty(NEW_VERSION))) {
+            log.log("Discarding update that was ready to be installed");
+            //noinspection ResultOfMethodCallIgnored
+            readyFile.delete();
+        }
+    }
+
+    /**
+     * Activate the update that is ready in the given Keepup home, if any, and run it with the given arguments.
+     *
+     * @param appHome Keepup home directory
+     * @param args    arguments to pass to the updated application
+     * @return the exit code of the updated application, or empty if no update was activated, in which case the
+     * current version should run
+     */
+    public static OptionalInt activate(File appHome, String[] args) {
+        var readyFile = new File(appHome, READY_FILE);
+        if (!readyFile.isFile()) return OptionalInt.empty();
+        var ready = load(readyFile);
+
+        // whatever happens next, the activation must not be attempted again at every start
+        //noinspection ResultOfMethodCallIgnored
+        readyFile.delete();
+
+        if (ready == null) return OptionalInt.empty();
+        var log = new KeepupLogger(Path.of(ready.getProperty(LOG, new File(appHome, "keepup.log").getPath())));
+        var appName = ready.getProperty(APP_NAME, "");
+        var newVersionDir = new File(ready.getProperty(NEW_VERSION, ""));
+        if (!looksLikeJlinkApp(newVersionDir, appName)) {
+            log.log("ERROR: update that was ready to be installed is missing: " + newVersionDir);
+            return OptionalInt.empty();
+        }
+
+        try {
+            if (Boolean.parseBoolean(ready.getProperty(VERSIONED))) {
+                var layout = new VersionedLayout(appHome);
+                layout.activate(newVersionDir, log);
+                AppHomeLock.installed(appHome);
+                return OptionalInt.of(launch(layout.launchDir(newVersionDir), appName, args, log));
+            }
+            return install(appHome, newVersionDir, appName, Boolean.parseBoolean(ready.getProperty(SYNC)), args, log);
+        } catch (IOException e) {
+            log.log("ERROR: cannot activate update: " + e);
+            return OptionalInt.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.log("ERROR: interrupted while activating update");
+            return OptionalInt.empty();
+        }
+    }
+
+    private static OptionalInt install(File appHome, File newVersionDir, String appName, boolean sync,
+                                       String[] args, KeepupLogger log) throws IOException, InterruptedException {
+        var isWindows = IoUtils.isWindowsOs();
+        var installerArgs = new InstallerArgs(currentApp().toPath(), newVersionDir.toPath(), appName, isWindows,
+                sync, appHome.toPath());
+        var installer = new ProcessBuilder(InstallerCreator.installerCommand(installerArgs, isWindows))
+                .redirectOutput(Redirect.appendTo(log.getLogFile()))
+                .redirectError(Redirect.appendTo(log.getLogFile()));
+
+        if (isWindows) {
+            // the installation cannot be replaced while this process runs, so the installer relaunches the
+            // application after this process exits
+            log.log("Invoking installer");
+            log.flush();
+            installer.start();
+            return OptionalInt.of(0);
+        }
+
+        log.log("Installing update");
+        log.flush();
+        var exitCode = installer.start().waitFor();
+        if (exitCode != 0) {
+            log.log("ERROR: Installer exited with " + exitCode);
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(launch(currentApp(), appName, args, log));
+    }
+
+    private static int launch(File appDir, String appName, String[] args, KeepupLogger log)
+            throws IOException, InterruptedException {
+        var command = new ArrayList<>(List.of(IoUtils.launcher(appDir, appName, IoUtils.isWindowsOs())));
+        command.addAll(List.of(args));
+        log.log("Launching updated application");
+        log.flush();
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+
+    private static Properties load(File readyFile) {
+        var ready = new Properties();
+        try (InputStream in = Files.newInputStream(readyFile.toPath())) {
+            ready.load(in);
+            return ready;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
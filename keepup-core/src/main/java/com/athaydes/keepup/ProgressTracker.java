@@ -0,0 +1,124 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.UpdateProgress;
+import com.athaydes.keepup.api.UpdateProgress.Stage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Counts the bytes moved by one stage of an update and reports them to the progress listener.
+ * <p>
+ * Events are delivered on the Thread doing the I/O, but at most once every {@link #INTERVAL_NANOS}, so that
+ * reporting does not slow down the copy loops. Counting is thread-safe, as segmented downloads report
+ * from several threads.
+ * <p>
+ * As all copy loops report to a tracker, it is also where they stop if the update cycle is aborted:
+ * counting bytes or entries throws an {@link java.io.InterruptedIOException} once {@link Cancellation} is signalled.
+ */
+final class ProgressTracker {
+
+    static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Consumer<UpdateProgress> listener;
+    private final Stage stage;
+    private final String version;
+    private final KeepupLogger log;
+    private final Cancellation cancellation;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger entries = new AtomicInteger();
+    private final AtomicLong nextDelivery = new AtomicLong();
+    private volatile long totalBytes = -1L;
+    private volatile long initialBytes;
+    private volatile long startTime = System.nanoTime();
+
+    ProgressTracker(Consumer<UpdateProgress> listener, Stage stage, String version, KeepupLogger log,
+                    Cancellation cancellation) {
+        this.listener = listener;
+        this.stage = stage;
+        this.version = version;
+        this.log = log;
+        this.cancellation = cancellation;
+        this.nextDelivery.set(startTime + INTERVAL_NANOS);
+    }
+
+    /**
+     * Restart counting, e.g. when a download is resumed or restarted from scratch.
+     *
+     * @param bytes      bytes already available
+     * @param totalBytes bytes expected in total, or -1 if unknown
+     */
+    void reset(long bytes, long totalBytes) {
+        this.totalBytes = totalBytes;
+        this.initialBytes = bytes;
+        this.startTime = System.nanoTime();
+        this.bytes.set(bytes);
+    }
+
+    void add(long count) throws InterruptedIOException {
+        cancellation.check();
+        if (count <= 0) return;
+        bytes.addAndGet(count);
+        maybeDeliver();
+    }
+
+    void entryDone() throws InterruptedIOException {
+        cancellation.check();
+        entries.incrementAndGet();
+        maybeDeliver();
+    }
+
+    void checkCancelled() throws InterruptedIOException {
+        cancellation.check();
+    }
+
+    void done() {
+        deliver(true);
+    }
+
+    InputStream track(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b >= 0) add(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var count = super.read(b, off, len);
+                add(count);
+                return count;
+            }
+        };
+    }
+
+    private void maybeDeliver() {
+        var next = nextDelivery.get();
+        var now = System.nanoTime();
+        if (now >= next && nextDelivery.compareAndSet(next, now + INTERVAL_NANOS)) {
+            deliver(false);
+        }
+    }
+
+    private void deliver(boolean done) {
+        var currentBytes = bytes.get();
+        var seconds = (System.nanoTime() - startTime) / 1e9;
+        var bytesPerSecond = seconds > 0 ? (currentBytes - initialBytes) / seconds : 0.0;
+        try {
+            listener.accept(new UpdateProgress(stage, version, currentBytes, totalBytes,
+                    entries.get(), bytesPerSecond, done));
+        } catch (RuntimeException e) {
+            // a misbehaving listener must not break the update
+            log.log("ERROR: progress listener failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.KeepupException;
+import com.athaydes.keepup.api.KeepupException.ErrorCode;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A step of the Keepup update cycle.
+ * <p>
+ * Each stage declares the kind of work it does, which determines where {@link StageRunner} runs it, and the
+ * {@link ErrorCode} used to report its failures, and may have a deadline after which it fails with a
+ * {@link java.util.concurrent.TimeoutException}. Stages take the result of a previous stage as input, so they
+ * can be replaced individually (see {@link UpdateStages}).
+ *
+ * @param <I> input type
+ * @param <O> output type
+ */
+final class Stage<I, O> {
+
+    /**
+     * The kind of work a stage does.
+     */
+    enum Kind {
+        /**
+         * Computation that does not wait on anything.
+         */
+        CPU,
+        /**
+         * Work that blocks on the network or file system.
+         */
+        BLOCKING_IO,
+        /**
+         * Invocation of application-provided code (callbacks and the distributor), whose result may arrive
+         * asynchronously, on any Thread.
+         */
+        CALLBACK,
+    }
+
+    @FunctionalInterface
+    interface Body<I, O> {
+        O apply(I input) throws Exception;
+    }
+
+    @FunctionalInterface
+    interface AsyncBody<I, O> {
+        CompletionStage<O> apply(I input) throws Exception;
+    }
+
+    final String name;
+    final Kind kind;
+    final ErrorCode errorCode;
+    final Optional<Duration> timeout;
+    private final AsyncBody<I, O> body;
+
+    private Stage(String name, Kind kind, ErrorCode errorCode, Optional<Duration> timeout, AsyncBody<I, O> body) {
+        this.name = name;
+        this.kind = kind;
+        this.errorCode = errorCode;
+        this.timeout = timeout;
+        this.body = body;
+    }
+
+    /**
+     * Create a stage that completes when its body returns.
+     */
+    static <I, O> Stage<I, O> of(String name, Kind kind, ErrorCode errorCode, Body<I, O> body) {
+        return new Stage<>(name, kind, errorCode, Optional.empty(), input -> CompletableFuture.completedFuture(body.apply(input)));
+    }
+
+    /**
+     * Create a stage that completes when the {@link CompletionStage} returned by its body completes.
+     */
+    static <I, O> Stage<I, O> async(String name, Kind kind, ErrorCode errorCode, AsyncBody<I, O> body) {
+        return new Stage<>(name, kind, errorCode, Optional.empty(), body);
+    }
+
+    /**
+     * @return a copy of this stage that must complete within the given time, if any
+     */
+    Stage<I, O> withTimeout(Optional<Duration> timeout) {
+        return new Stage<>(name, kind, errorCode, timeout, body);
+    }
+
+    CompletionStage<O> start(I input) throws Exception {
+        return body.apply(input);
+    }
+
+    KeepupException error(Throwable cause) {
+        if (cause instanceof KeepupException) {
+            return (KeepupException) cause;
+        }
+        return new KeepupException(errorCode, cause);
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + kind + "]";
+    }
+}
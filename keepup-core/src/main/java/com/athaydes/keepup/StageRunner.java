@@ -0,0 +1,196 @@
+package com.athaydes.keepup;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs {@link Stage}s on the executor for their {@link Stage.Kind}, and logs how long each one takes.
+ * <p>
+ * A stage only hops to another Thread if the current Thread is not already running a task of the executor
+ * it needs. So consecutive stages that use the same executor run one after the other on the same Thread,
+ * while a stage following an asynchronous result (e.g. one provided by the application) is moved back
+ * to a Keepup executor, rather than running on whichever Thread completed that result.
+ * <p>
+ * When the cycle is aborted, because it was cancelled or a stage ran past its deadline, the stages in flight
+ * fail immediately, even if their Thread is still blocked or the application never completes their result,
+ * and no further stages are started, except those run with {@link #runFinally(Stage, Object)}.
+ */
+final class StageRunner {
+
+    private static final ThreadLocal<Executor> currentExecutor = new ThreadLocal<>();
+
+    private final Map<Stage.Kind, Executor> executors;
+    private final KeepupLogger log;
+    private final Cancellation cancellation;
+    private final Map<CompletableFuture<?>, Stage<?, ?>> inFlight = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> aborted = new CompletableFuture<>();
+
+    StageRunner(Map<Stage.Kind, Executor> executors, KeepupLogger log, Cancellation cancellation) {
+        this.executors = new EnumMap<>(executors);
+        this.log = log;
+        this.cancellation = cancellation;
+        for (Stage.Kind kind : Stage.Kind.values()) {
+            if (!this.executors.containsKey(kind)) {
+                throw new IllegalArgumentException("No executor for " + kind + " stages");
+            }
+        }
+    }
+
+    /**
+     * Run all kinds of stages on the same executor.
+     */
+    static StageRunner of(Executor executor, KeepupLogger log, Cancellation cancellation) {
+        var executors = new EnumMap<Stage.Kind, Executor>(Stage.Kind.class);
+        for (Stage.Kind kind : Stage.Kind.values()) {
+            executors.put(kind, executor);
+        }
+        return new StageRunner(executors, log, cancellation);
+    }
+
+    /**
+     * Run a stage.
+     * <p>
+     * If the stage fails, the returned future completes with a {@link com.athaydes.keepup.api.KeepupException}
+     * with the stage's error code, unless the stage itself failed with a {@code KeepupException}.
+     *
+     * If the cycle has been aborted, the stage does not run, and the returned future fails with the reason
+     * of the abort, i.e. a {@link java.util.concurrent.CancellationException} or a {@link TimeoutException}.
+     *
+     * @return the future result of the stage
+     */
+    <I, O> CompletableFuture<O> run(Stage<I, O> stage, I input) {
+        var result = new CompletableFuture<O>();
+        inFlight.put(result, stage);
+        result.whenComplete((ignore, error) -> inFlight.remove(result));
+        dispatch(stage, input, result, false);
+        return result;
+    }
+
+    /**
+     * Run a stage even if the cycle has been aborted, e.g. to report how the cycle ended.
+     *
+     * @return the future result of the stage
+     */
+    <I, O> CompletableFuture<O> runFinally(Stage<I, O> stage, I input) {
+        var result = new CompletableFuture<O>();
+        dispatch(stage, input, result, true);
+        return result;
+    }
+
+    /**
+     * Abort the cycle, failing all stages in flight.
+     *
+     * @param reason a {@link java.util.concurrent.CancellationException} or a {@link TimeoutException}
+     * @return true if the cycle was aborted by this call, false if it had already been aborted
+     */
+    boolean abort(Exception reason) {
+        var aborted = cancellation.abort(reason);
+        var error = cancellation.reason();
+        inFlight.forEach((result, stage) -> {
+            var stageError = stage.error(error);
+            result.completeExceptionally(stageError);
+            this.aborted.completeExceptionally(stageError);
+        });
+        return aborted;
+    }
+
+    /**
+     * A stage that runs on the Thread that started it may only return its future once it's done, so a future that
+     * depends on it cannot fail before that even if the cycle is aborted. This one can.
+     *
+     * @return a future that never completes normally, and fails with the error of a stage in flight when the
+     * cycle is aborted
+     */
+    CompletableFuture<Void> aborted() {
+        return aborted;
+    }
+
+    private <I, O> void dispatch(Stage<I, O> stage, I input, CompletableFuture<O> result, boolean always) {
+        var executor = executors.get(stage.kind);
+        var scheduledAt = System.nanoTime();
+        if (currentExecutor.get() == executor) {
+            execute(stage, input, scheduledAt, result, always);
+        } else {
+            try {
+                executor.execute(() -> {
+                    var previous = currentExecutor.get();
+                    currentExecutor.set(executor);
+                    try {
+                        execute(stage, input, scheduledAt, result, always);
+                    } finally {
+                        currentExecutor.set(previous);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(stage.error(e));
+            }
+        }
+    }
+
+    private <I, O> void execute(Stage<I, O> stage, I input, long scheduledAt,
+                                CompletableFuture<O> result, boolean always) {
+        if (result.isDone()) return; // failed while waiting to start
+        if (!always && cancellation.isAborted()) {
+            result.completeExceptionally(stage.error(cancellation.reason()));
+            return;
+        }
+        var startedAt = System.nanoTime();
+        stage.timeout.ifPresent(timeout -> {
+            var deadline = KeepupTimer.get().schedule(() -> timeOut(stage, timeout),
+                    timeout.toMillis(), TimeUnit.MILLISECONDS);
+            result.whenComplete((ignore, error) -> deadline.cancel(false));
+        });
+        CompletionStage<O> stageResult;
+        cancellation.enter();
+        try {
+            stageResult = stage.start(input);
+        } catch (Throwable e) {
+            logTiming(stage, scheduledAt, startedAt, e);
+            result.completeExceptionally(stage.error(cancellation.isAborted() ? cancellation.reason() : e));
+            return;
+        } finally {
+            cancellation.exit();
+        }
+        stageResult.whenComplete((value, error) -> {
+            logTiming(stage, scheduledAt, startedAt, error);
+            if (error == null) {
+                result.complete(value);
+            } else if (cancellation.isAborted()) {
+                // the stage was most likely interrupted, report why
+                result.completeExceptionally(stage.error(cancellation.reason()));
+            } else {
+                result.completeExceptionally(stage.error(unwrap(error)));
+            }
+        });
+    }
+
+    private void timeOut(Stage<?, ?> stage, Duration timeout) {
+        if (cancellation.isAborted()) return;
+        log.log("Stage " + stage + " timed out");
+        abort(new TimeoutException("Stage " + stage.name + " timed out after " + timeout.toMillis() + "ms"));
+    }
+
+    private void logTiming(Stage<?, ?> stage, long scheduledAt, long startedAt, Throwable error) {
+        var now = System.nanoTime();
+        var waited = TimeUnit.NANOSECONDS.toMillis(startedAt - scheduledAt);
+        log.log("Stage " + stage + (error == null ? " completed" : " failed") +
+                " in " + TimeUnit.NANOSECONDS.toMillis(now - startedAt) + "ms" +
+                (waited > 0 ? " (waited " + waited + "ms to start)" : ""));
+    }
+
+    static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,63 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ArchiveFormat;
+import com.athaydes.keepup.api.ParallelGzip;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The tar.gz {@link ArchiveFormat}.
+ * <p>
+ * Files compressed with {@link ParallelGzip} are decompressed by several threads, everything else is
+ * decompressed sequentially by {@link GZIPInputStream}, which also handles the multiple gzip members
+ * written by {@link ParallelGzip}.
+ */
+final class TarGzFormat implements ArchiveFormat {
+
+    private static final int MAX_THREADS = 8;
+
+    @Override
+    public String name() {
+        return "tar.gz";
+    }
+
+    @Override
+    public boolean matchesName(String fileName) {
+        var name = fileName.toLowerCase(Locale.ROOT);
+        return name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    @Override
+    public boolean matchesMagic(byte[] header) {
+        return header.length >= 3 && header[0] == 0x1f && header[1] == (byte) 0x8b && header[2] == 8;
+    }
+
+    @Override
+    public void unpack(InputStream archive, File destinationDir, Context context) throws IOException {
+        var in = new GZIPInputStream(archive, 64 * 1024);
+        new TarUnpacker(context).unpack(new BufferedInputStream(in, 64 * 1024), destinationDir);
+    }
+
+    @Override
+    public void unpack(File archive, File destinationDir, Context context) throws IOException {
+        var threads = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        // on a single core, decompressing in parallel only adds overhead
+        if (threads <= 1 || !ParallelGzipInputStream.isIndexed(archive.toPath())) {
+            ArchiveFormat.super.unpack(archive, destinationDir, context);
+            return;
+        }
+        try (var in = ParallelGzipInputStream.open(archive.toPath(), threads, context.resourceBudget())) {
+            new TarUnpacker(context).unpack(in, destinationDir);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
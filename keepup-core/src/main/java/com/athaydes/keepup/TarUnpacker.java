@@ -0,0 +1,295 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ArchiveFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Unpacks a tar archive (POSIX ustar, including pax and GNU long name extensions) from a stream.
+ * <p>
+ * As with zip files, the first entry must be the single top-level folder, which is not included in the result.
+ * Regular files, directories, symbolic links and hard links are unpacked, other entry types are ignored.
+ * Links pointing outside of the destination directory are rejected, as are entries that would be unpacked through
+ * a symbolic link, and symbolic links whose target goes up the directory tree after going down.
+ */
+final class TarUnpacker {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private final ArchiveFormat.Context context;
+
+    TarUnpacker(ArchiveFormat.Context context) {
+        this.context = context;
+    }
+
+    void unpack(InputStream in, File destinationDir) throws IOException {
+        Files.createDirectories(destinationDir.toPath());
+        var root = destinationDir.toPath().toRealPath();
+        var header = new byte[BLOCK_SIZE];
+        String topEntryName = null;
+        String longName = null;
+        String longLinkName = null;
+
+        while (readBlock(in, header)) {
+            if (isZeros(header)) break;
+
+            var name = longName != null ? longName : entryName(header);
+            var linkName = longLinkName != null ? longLinkName : string(header, 157, 100);
+            longName = null;
+            longLinkName = null;
+            var size = number(header, 124, 12);
+            var type = header[156];
+
+            switch (type) {
+                case 'x': { // pax extended header for the next entry
+                    var pax = new String(readData(in, size), StandardCharsets.UTF_8);
+                    longName = paxValue(pax, "path");
+                    longLinkName = paxValue(pax, "linkpath");
+                    continue;
+                }
+                case 'L': // GNU long name for the next entry
+                    longName = nullTerminated(readData(in, size));
+                    continue;
+                case 'K': // GNU long link name for the next entry
+                    longLinkName = nullTerminated(readData(in, size));
+                    continue;
+            }
+
+            if (topEntryName == null) {
+                if (type != '5') {
+                    throw new IOException("Expected the first entry of the tar file to be a directory, not " + name);
+                }
+                topEntryName = name.endsWith("/") ? name : name + "/";
+                skipData(in, size);
+                continue;
+            }
+            if (!name.startsWith(topEntryName)) {
+                throw new IOException("Tar entry is outside the top-level directory: " + name);
+            }
+            var file = resolve(root, name.substring(topEntryName.length()), name);
+
+            switch (type) {
+                case '0':
+                case 0:
+                case '7': // contiguous file
+                    createParents(root, file, name);
+                    context.write(new BoundedInputStream(in, size), file);
+                    skipData(in, padding(size));
+                    if ((number(header, 100, 8) & 0100) != 0) {
+                        file.toFile().setExecutable(true, false);
+                    }
+                    break;
+                case '5':
+                    createParents(root, file, name);
+                    Files.createDirectories(file);
+                    skipData(in, size);
+                    break;
+                case '2': {
+                    var target = createParents(root, file, name).resolve(linkName).normalize();
+                    if (!target.startsWith(root) || goesUpAfterDown(linkName)) {
+                        throw new IOException("Tar symbolic link points outside of the destination: " + name);
+                    }
+                    Files.createSymbolicLink(file, Path.of(linkName));
+                    break;
+                }
+                case '1': {
+                    if (!linkName.startsWith(topEntryName)) {
+                        throw new IOException("Tar hard link is outside the top-level directory: " + name);
+                    }
+                    var target = resolve(root, linkName.substring(topEntryName.length()), linkName);
+                    checkNotLinked(root, target, name);
+                    createParents(root, file, name);
+                    if (Files.isSymbolicLink(target)) {
+                        throw new IOException("Tar hard link points to a symbolic link: " + name);
+                    }
+                    Files.createLink(file, target);
+                    break;
+                }
+                default:
+                    skipData(in, size + padding(size));
+                    continue;
+            }
+            context.entryDone();
+        }
+    }
+
+    private static Path resolve(Path root, String relativePath, String entryName) throws IOException {
+        var file = root.resolve(relativePath).normalize();
+        if (!file.startsWith(root) || file.equals(root)) {
+            throw new IOException("Invalid tar entry: " + entryName);
+        }
+        return file;
+    }
+
+    /**
+     * Create the parent directories of an entry, making sure they are really inside the destination directory.
+     *
+     * @return the real path of the parent directory
+     */
+    private static Path createParents(Path root, Path file, String entryName) throws IOException {
+        checkNotLinked(root, file, entryName);
+        var parent = Files.createDirectories(file.getParent()).toRealPath();
+        if (!parent.startsWith(root)) {
+            throw new IOException("Tar entry is outside of the destination: " + entryName);
+        }
+        return parent;
+    }
+
+    /**
+     * Symbolic links created by earlier entries may point anywhere within the destination, so following one to
+     * unpack an entry could be used to escape it, e.g. with {@code a -> .} followed by {@code a/b -> ..}.
+     */
+    private static void checkNotLinked(Path root, Path file, String entryName) throws IOException {
+        for (var dir = file.getParent(); !dir.equals(root); dir = dir.getParent()) {
+            if (Files.isSymbolicLink(dir)) {
+                throw new IOException("Tar entry is inside a symbolic link: " + entryName);
+            }
+        }
+    }
+
+    /**
+     * Whether a link target has a {@code ..} after a directory name, which may not lead where it seems to if
+     * that directory is itself a symbolic link. Leading {@code ..}, as used by jlink images, is fine.
+     */
+    private static boolean goesUpAfterDown(String linkName) {
+        var down = false;
+        for (var part : Path.of(linkName)) {
+            var name = part.toString();
+            if (name.equals("..")) {
+                if (down) return true;
+            } else if (!name.equals(".")) {
+                down = true;
+            }
+        }
+        return false;
+    }
+
+    private static String entryName(byte[] header) {
+        var name = string(header, 0, 100);
+        // ustar headers may split long names into a prefix and a name
+        if (string(header, 257, 5).equals("ustar")) {
+            var prefix = string(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String paxValue(String pax, String key) {
+        // records have the format "<length> <key>=<value>\n"
+        var index = 0;
+        while (index < pax.length()) {
+            var space = pax.indexOf(' ', index);
+            if (space < 0) break;
+            var length = Integer.parseInt(pax.substring(index, space));
+            var record = pax.substring(space + 1, index + length - 1);
+            if (record.startsWith(key + "=")) {
+                return record.substring(key.length() + 1);
+            }
+            index += length;
+        }
+        return null;
+    }
+
+    private static String string(byte[] header, int offset, int length) {
+        var end = offset;
+        while (end < offset + length && header[end] != 0) end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String nullTerminated(byte[] data) {
+        return string(data, 0, data.length);
+    }
+
+    private static long number(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            // GNU base-256 encoding, used for large numbers
+            long result = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                result = (result << 8) | (header[i] & 0xff);
+            }
+            return result;
+        }
+        var value = string(header, offset, length).trim();
+        if (value.isEmpty()) return 0L;
+        try {
+            return Long.parseLong(value, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in tar header: " + value);
+        }
+    }
+
+    private static boolean isZeros(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static long padding(long size) {
+        return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        var count = in.readNBytes(block, 0, block.length);
+        if (count == 0) return false;
+        if (count < block.length) throw new IOException("Unexpected end of tar file");
+        return true;
+    }
+
+    private static byte[] readData(InputStream in, long size) throws IOException {
+        if (size > 1024 * 1024) {
+            throw new IOException("Tar extended header too large: " + size);
+        }
+        var data = in.readNBytes((int) size);
+        if (data.length < size) throw new IOException("Unexpected end of tar file");
+        skipData(in, padding(size));
+        return data;
+    }
+
+    private static void skipData(InputStream in, long count) throws IOException {
+        var buffer = new byte[BLOCK_SIZE];
+        while (count > 0) {
+            var read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read < 0) throw new IOException("Unexpected end of tar file");
+            count -= read;
+        }
+    }
+
+    /**
+     * Stream over the data of a single tar entry. Closing it does not close the tar stream.
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long size) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            var b = in.read();
+            if (b < 0) throw new IOException("Unexpected end of tar file");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            var count = in.read(b, off, (int) Math.min(len, remaining));
+            if (count < 0) throw new IOException("Unexpected end of tar file");
+            remaining -= count;
+            return count;
+        }
+    }
+}
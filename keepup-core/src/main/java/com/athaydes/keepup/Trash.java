@@ -0,0 +1,107 @@
+package com.athaydes.keepup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A trash directory inside the Keepup home directory.
+ * <p>
+ * Directories that are no longer needed are renamed into the trash, which is instant as the trash is on the same
+ * file system, and then deleted by a low-priority background Thread. If the application exits before the trash is
+ * emptied, the remaining entries are deleted the next time {@link #emptyInBackground()} is called.
+ */
+final class Trash {
+
+    static final String KEEPUP_TRASH = "keepup-trash";
+
+    // only one Thread per process needs to empty each trash
+    private static final Set<File> beingEmptied = ConcurrentHashMap.newKeySet();
+
+    private final File trashDir;
+    private final KeepupLogger log;
+
+    Trash(File appHome, KeepupLogger log) {
+        this.trashDir = new File(appHome, KEEPUP_TRASH).getAbsoluteFile();
+        this.log = log;
+    }
+
+    /**
+     * Move the given directory into the trash, or delete it immediately if it cannot be moved.
+     */
+    void moveToTrash(File dir) throws IOException {
+        if (!dir.exists()) return;
+        if (IoUtils.isCurrentApp(dir)) {
+            throw new IOException("Cannot delete the running application: " + dir);
+        }
+        if (!trashDir.mkdirs() && !trashDir.isDirectory()) {
+            throw new IOException("Trash directory cannot be created: " + trashDir);
+        }
+        var target = new File(trashDir, dir.getName() + "-" + UUID.randomUUID());
+        try {
+            Files.move(dir.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.log("Cannot move " + dir + " to trash, deleting it now: " + e);
+            delete(dir);
+        }
+    }
+
+    /**
+     * Make sure the given directory exists and is empty, moving any existing contents into the trash.
+     */
+    File emptyDir(File dir) throws IOException {
+        var children = dir.list();
+        if (children != null && children.length > 0) {
+            moveToTrash(dir);
+        }
+        return IoUtils.emptyDir(dir);
+    }
+
+    /**
+     * Start deleting the contents of the trash in a background Thread, unless that's already happening.
+     */
+    void emptyInBackground() {
+        var entries = trashDir.listFiles();
+        if (entries == null || entries.length == 0) return;
+        if (!beingEmptied.add(trashDir)) return;
+        var thread = new Thread(() -> {
+            try {
+                emptyTrash();
+            } finally {
+                beingEmptied.remove(trashDir);
+            }
+        }, "keepup-trash");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void emptyTrash() {
+        // more entries may be added while we're deleting
+        File[] entries;
+        while ((entries = trashDir.listFiles()) != null && entries.length > 0) {
+            var deletedAny = false;
+            for (File entry : entries) {
+                try {
+                    delete(entry);
+                    deletedAny = true;
+                } catch (IOException e) {
+                    // may be in use, or being deleted by another process, try again next time
+                    log.log("ERROR: could not empty trash: " + e);
+                }
+            }
+            if (!deletedAny) return;
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.isDirectory()) {
+            IoUtils.deleteContents(file);
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -0,0 +1,48 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ArchiveFormat;
+import com.athaydes.keepup.api.ResourceBudget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * The {@link ArchiveFormat.Context} used while unpacking an update, which reports progress to a
+ * {@link ProgressTracker}.
+ */
+final class UnpackContext implements ArchiveFormat.Context {
+
+    private final ResourceBudget budget;
+    private final ProgressTracker progress;
+
+    UnpackContext(ResourceBudget budget, ProgressTracker progress) {
+        this.budget = budget;
+        this.progress = progress;
+    }
+
+    @Override
+    public ResourceBudget resourceBudget() {
+        return budget;
+    }
+
+    @Override
+    public void expectBytes(long totalBytes) {
+        progress.reset(0L, totalBytes);
+    }
+
+    @Override
+    public void write(InputStream in, Path file) throws IOException {
+        IoUtils.write(progress.track(in), file, budget.getDiskWriteLimiter());
+    }
+
+    @Override
+    public void bytesWritten(long count) throws IOException {
+        progress.add(count);
+    }
+
+    @Override
+    public void entryDone() throws IOException {
+        progress.entryDone();
+    }
+}
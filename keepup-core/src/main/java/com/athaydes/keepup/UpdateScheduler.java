@@ -0,0 +1,233 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.KeepupConfig;
+import com.athaydes.keepup.api.KeepupException;
+import com.athaydes.keepup.api.UpdateCycle;
+import com.athaydes.keepup.api.UpdateInstaller;
+import com.athaydes.keepup.api.UpdateSchedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs update checks periodically, according to an {@link UpdateSchedule}.
+ * <p>
+ * When each check runs is saved in the Keepup home directory, so restarting the application does not cause an
+ * immediate check, and installations that are started at the same time (or all miss a check while offline)
+ * spread their next checks randomly. The times at which new releases were found are saved too, so that
+ * applications that are rarely released are also checked less often.
+ */
+public final class UpdateScheduler {
+
+    static final String STATE_FILE = "keepup-schedule.properties";
+
+    // how many times to check between two releases, on average
+    private static final int CHECKS_PER_RELEASE = 8;
+    private static final int MAX_RELEASES = 8;
+
+    private static final String NEXT_CHECK = "nextCheck";
+    private static final String FAILURES = "failures";
+    private static final String UPDATE_AVAILABLE = "updateAvailable";
+    private static final String RELEASES = "releases";
+
+    private final UpdateSchedule schedule;
+    private final Supplier<UpdateCycle> check;
+    private final File stateFile;
+    private final KeepupLogger log;
+
+    private ScheduledFuture<?> nextCheck;
+    private boolean stopped;
+
+    public UpdateScheduler(KeepupConfig config, UpdateSchedule schedule, Supplier<UpdateCycle> check) {
+        this.schedule = schedule;
+        this.check = check;
+        this.stateFile = new File(config.appHome(), STATE_FILE);
+        this.log = new KeepupLogger(config.keepupLog());
+    }
+
+    public void start() {
+        var state = loadState();
+        var now = Instant.now();
+        var savedNextCheck = Instant.ofEpochMilli(longProperty(state, NEXT_CHECK));
+        Duration delay;
+        if (savedNextCheck.isAfter(now)) {
+            // guard against the clock having been turned back
+            delay = min(Duration.between(now, savedNextCheck), schedule.getMaxInterval().multipliedBy(2));
+        } else {
+            delay = random(Duration.ZERO, fraction(schedule.getInterval(), schedule.getJitter()));
+        }
+        scheduleIn(delay);
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (nextCheck != null) {
+            nextCheck.cancel(false);
+        }
+    }
+
+    private synchronized void scheduleIn(Duration delay) {
+        if (stopped) return;
+        log.log("Next update check in " + delay.toMillis() + "ms");
+        nextCheck = KeepupTimer.get().schedule(this::runCheck, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void runCheck() {
+        UpdateCycle cycle;
+        try {
+            cycle = check.get();
+        } catch (RuntimeException e) {
+            checked(null, e);
+            return;
+        }
+        cycle.result().whenComplete(this::checked);
+    }
+
+    private void checked(Optional<UpdateInstaller> installer, Throwable error) {
+        var state = loadState();
+        var now = Instant.now();
+        var releases = releases(state);
+        var cause = StageRunner.unwrap(error);
+        Duration delay;
+
+        if (cause == null || cause instanceof CancellationException) {
+            state.setProperty(FAILURES, "0");
+            var updateAvailable = installer != null && installer.isPresent();
+            // the same release is found again by every check until the application is restarted
+            if (updateAvailable && !Boolean.parseBoolean(state.getProperty(UPDATE_AVAILABLE))) {
+                releases.add(now.toEpochMilli());
+            }
+            state.setProperty(UPDATE_AVAILABLE, Boolean.toString(updateAvailable));
+            delay = jitter(interval(releases));
+        } else {
+            var failures = longProperty(state, FAILURES) + 1;
+            state.setProperty(FAILURES, Long.toString(failures));
+            var backoff = interval(releases).multipliedBy(1L << Math.min(failures, 16L));
+            delay = jitter(min(backoff, schedule.getMaxInterval()));
+            var retryAfter = retryAfter(cause);
+            if (retryAfter.isPresent() && retryAfter.get().compareTo(delay) > 0) {
+                // never earlier than the server asked for
+                delay = random(retryAfter.get(), retryAfter.get().plus(
+                        fraction(retryAfter.get(), schedule.getJitter())));
+            }
+            log.log("Update check failed " + failures + " time(s) in a row");
+        }
+
+        var keptReleases = releases.subList(Math.max(0, releases.size() - MAX_RELEASES), releases.size());
+        state.setProperty(RELEASES, keptReleases.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        state.setProperty(NEXT_CHECK, Long.toString(now.plus(delay).toEpochMilli()));
+        saveState(state);
+        scheduleIn(delay);
+    }
+
+    /**
+     * @return the interval between checks, which is longer than configured if releases are rare
+     */
+    private Duration interval(List<Long> releases) {
+        var interval = schedule.getInterval();
+        if (releases.size() < 2) return interval;
+        var gaps = new ArrayList<Long>(releases.size() - 1);
+        for (int i = 1; i < releases.size(); i++) {
+            gaps.add(releases.get(i) - releases.get(i - 1));
+        }
+        Collections.sort(gaps);
+        var medianGap = Duration.ofMillis(gaps.get(gaps.size() / 2));
+        var adaptive = medianGap.dividedBy(CHECKS_PER_RELEASE);
+        return min(max(adaptive, interval), schedule.getMaxInterval());
+    }
+
+    private Duration jitter(Duration delay) {
+        var jitter = fraction(delay, schedule.getJitter());
+        return random(delay.minus(jitter), delay.plus(jitter));
+    }
+
+    private static Optional<Duration> retryAfter(Throwable error) {
+        for (var cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof KeepupException) {
+                var retryAfter = ((KeepupException) cause).getRetryAfter();
+                if (retryAfter.isPresent()) return retryAfter;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static long longProperty(Properties state, String key) {
+        try {
+            return Long.parseLong(state.getProperty(key, "0"));
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static List<Long> releases(Properties state) {
+        var value = state.getProperty(RELEASES, "");
+        if (value.isEmpty()) return new ArrayList<>();
+        try {
+            return Stream.of(value.split(","))
+                    .map(Long::valueOf)
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } catch (NumberFormatException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    private Properties loadState() {
+        var state = new Properties();
+        if (stateFile.isFile()) {
+            try (InputStream in = Files.newInputStream(stateFile.toPath())) {
+                state.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                log.log("ERROR: cannot read update schedule, starting over: " + e);
+                return new Properties();
+            }
+        }
+        return state;
+    }
+
+    private void saveState(Properties state) {
+        try {
+            var tempFile = new File(stateFile.getParentFile(), STATE_FILE + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+                state.store(out, null);
+            }
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.log("ERROR: cannot save update schedule: " + e);
+        }
+    }
+
+    private static Duration fraction(Duration duration, double fraction) {
+        return Duration.ofMillis((long) (duration.toMillis() * fraction));
+    }
+
+    private static Duration random(Duration min, Duration max) {
+        if (max.compareTo(min) <= 0) return min;
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(min.toMillis(), max.toMillis() + 1));
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+}
@@ -0,0 +1,552 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.AppDistributor;
+import com.athaydes.keepup.api.AppVersion;
+import com.athaydes.keepup.api.DeltaAppDistributor;
+import com.athaydes.keepup.api.KeepupConfig;
+import com.athaydes.keepup.api.KeepupException;
+import com.athaydes.keepup.api.UpdateInstaller;
+import com.athaydes.keepup.api.UpdateProgress;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.athaydes.keepup.IoUtils.currentApp;
+import static com.athaydes.keepup.IoUtils.looksLikeJlinkApp;
+import static com.athaydes.keepup.IoUtils.setFilePermissions;
+import static com.athaydes.keepup.Stage.Kind.BLOCKING_IO;
+import static com.athaydes.keepup.Stage.Kind.CALLBACK;
+import static com.athaydes.keepup.Stage.Kind.CPU;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.APP_HOME;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.CANNOT_REMOVE_UPDATE_ZIP;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.CREATE_UPDATE_SCRIPT;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.CURRENT_NOT_JLINK_APP;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.DOWNLOAD;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.LATEST_VERSION_CHECK;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.NO_UPDATE_CALLBACK;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.UNPACK;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.UPDATE_NOT_JLINK_APP;
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.VERIFY_UPDATE;
+
+/**
+ * The stages of a Keepup update cycle.
+ * <p>
+ * {@link KeepupStateMachine} decides in which order stages run, this class defines what each of them does.
+ * Each stage is a field that can be replaced before the cycle starts.
+ * <p>
+ * This class also remembers the files created during the cycle, so that they can be removed if the
+ * cycle is aborted (see {@link #discardPartialUpdate(boolean)}).
+ */
+final class UpdateStages {
+
+    /**
+     * A new version of the application, as found by its distributor.
+     */
+    static final class Candidate<V extends AppVersion> {
+        final AppDistributor<V> distributor;
+        final V version;
+
+        Candidate(AppDistributor<V> distributor, V version) {
+            this.distributor = distributor;
+            this.version = version;
+        }
+
+        String name() {
+            return version.name();
+        }
+
+        boolean isDelta() {
+            return distributor instanceof DeltaAppDistributor;
+        }
+    }
+
+    /**
+     * An update that was obtained from the distributor, as an archive, a directory or both once unpacked.
+     */
+    static final class Update {
+        final String version;
+        final File archive;
+        final Optional<String> archiveName;
+        final File dir;
+
+        Update(String version, File archive, Optional<String> archiveName, File dir) {
+            this.version = version;
+            this.archive = archive;
+            this.archiveName = archiveName;
+            this.dir = dir;
+        }
+
+        boolean isUnpacked() {
+            return dir != null;
+        }
+
+        Update withDir(File dir) {
+            return new Update(version, archive, archiveName, dir);
+        }
+    }
+
+    /**
+     * The outcome of an update cycle that another process completed while this one waited for it
+     * (see {@link AppHomeLock}). The update is empty if the other process found no update.
+     */
+    static final class SharedOutcome {
+        final Optional<Update> update;
+
+        SharedOutcome(Optional<Update> update) {
+            this.update = update;
+        }
+    }
+
+    // the first cycle of each application in this process cleans up after previous runs
+    private static final Set<Path> preparedAppHomes = ConcurrentHashMap.newKeySet();
+
+    private final KeepupConfig config;
+    private final KeepupCallbacks callbacks;
+    private final KeepupLogger log;
+    private final Cancellation cancellation;
+    private final Downloader downloader;
+    private final Trash trash;
+    private final AppHomeLock homeLock;
+
+    private volatile File newVersionDir;
+    private volatile File archive;
+    private volatile Runnable discardDownload;
+    // an update staged by another cycle, which this cycle must not delete
+    private volatile Update reusedUpdate;
+
+    /**
+     * Become the only cycle running in the Keepup home directory, waiting for the cycle of another process if
+     * necessary. Returns the outcome of that cycle, if there was one, so that it can be reused.
+     */
+    Stage<Void, Optional<SharedOutcome>> lead = Stage.of("lead", BLOCKING_IO, APP_HOME, ignore -> lead());
+
+    /**
+     * Clean up after previous cycles and check the current application.
+     * Returns false if the application has just been updated, in which case there's nothing else to do.
+     */
+    Stage<Void, Boolean> prepare = Stage.of("prepare", BLOCKING_IO, APP_HOME, ignore -> prepare());
+
+    Stage<AppDistributor<?>, Optional<Candidate<?>>> findVersion = Stage.async(
+            "find version", CALLBACK, LATEST_VERSION_CHECK, this::findVersion);
+
+    /**
+     * Find the update to the candidate version, if a previous cycle has already staged it.
+     */
+    Stage<Candidate<?>, Optional<Update>> findStaged = Stage.of(
+            "find staged update", BLOCKING_IO, DOWNLOAD, this::findStaged);
+
+    /**
+     * Find out which files changed, by hashing the current installation, if the distributor supports
+     * delta updates. Returns empty if a full update must be downloaded instead.
+     */
+    Stage<Candidate<?>, Optional<DeltaUpdate<?>>> planDelta = Stage.of(
+            "plan delta", CPU, DOWNLOAD, this::planDelta);
+
+    /**
+     * Assemble the update from the files that changed. Returns empty if a full update must be downloaded instead.
+     */
+    Stage<DeltaUpdate<?>, Optional<Update>> assembleDelta = Stage.of(
+            "assemble delta", BLOCKING_IO, DOWNLOAD, this::assembleDelta);
+
+    /**
+     * Download the update, and verify its hash and signature. When updates are unpacked while downloaded,
+     * the result is the unpacked update.
+     */
+    Stage<Candidate<?>, Update> download = Stage.of("download", BLOCKING_IO, DOWNLOAD, this::download);
+
+    /**
+     * Let the application verify the update. Other processes are no longer kept waiting at this point, as the
+     * callback may take as long as the user wants, e.g. if it shows a dialog.
+     */
+    Stage<Update, Boolean> verifyUpdate = Stage.async("verify update", CALLBACK, VERIFY_UPDATE, this::verifyUpdate);
+
+    Stage<Update, Update> unpack = Stage.of("unpack", BLOCKING_IO, UNPACK, this::unpack);
+
+    /**
+     * Check that the unpacked update is a jlink image and prepare it to be run. Other processes may reuse it
+     * from then on.
+     */
+    Stage<Update, Update> prepareImage = Stage.of("prepare image", BLOCKING_IO, UPDATE_NOT_JLINK_APP,
+            this::prepareImage);
+
+    Stage<Update, UpdateInstaller> createInstaller = Stage.of("create installer", BLOCKING_IO,
+            CREATE_UPDATE_SCRIPT, this::createInstaller);
+
+    /**
+     * Delete a rejected update.
+     */
+    Stage<Update, Void> discard = Stage.of("discard update", BLOCKING_IO, VERIFY_UPDATE, this::discard);
+
+    Stage<Void, Void> noUpdate = Stage.of("no update", CALLBACK, NO_UPDATE_CALLBACK, ignore -> noUpdate());
+
+    UpdateStages(KeepupConfig config, KeepupCallbacks callbacks, KeepupLogger log, Cancellation cancellation) {
+        this.config = config;
+        this.callbacks = callbacks;
+        this.log = log;
+        this.cancellation = cancellation;
+        this.downloader = new Downloader(config, log);
+        this.trash = new Trash(config.appHome(), log);
+        this.homeLock = new AppHomeLock(config.appHome(), log);
+
+        lead = lead.withTimeout(config.checkTimeout());
+        prepare = prepare.withTimeout(config.checkTimeout());
+        findVersion = findVersion.withTimeout(config.checkTimeout());
+        planDelta = planDelta.withTimeout(config.downloadTimeout());
+        assembleDelta = assembleDelta.withTimeout(config.downloadTimeout());
+        download = download.withTimeout(config.downloadTimeout());
+        unpack = unpack.withTimeout(config.unpackTimeout());
+        prepareImage = prepareImage.withTimeout(config.unpackTimeout());
+        createInstaller = createInstaller.withTimeout(config.installTimeout());
+    }
+
+    /**
+     * Remove the update this cycle was working on, after the cycle was cancelled or timed out.
+     *
+     * @param deleteDownload whether to delete a partial download too. It is kept after a timeout,
+     *                       so the next cycle can resume it.
+     */
+    void discardPartialUpdate(boolean deleteDownload) {
+        var dir = newVersionDir;
+        if (dir != null && dir.exists()) {
+            discardUnpacked(dir);
+        }
+        var zip = archive;
+        if (zip != null) {
+            //noinspection ResultOfMethodCallIgnored
+            zip.delete();
+        }
+        var partialDownload = discardDownload;
+        if (deleteDownload && partialDownload != null) {
+            log.log("Deleting partial download");
+            partialDownload.run();
+        }
+    }
+
+    /**
+     * Let other processes run their update cycles.
+     */
+    void releaseHome() {
+        homeLock.release();
+    }
+
+    private Optional<SharedOutcome> lead() throws IOException, InterruptedException {
+        Optional<AppHomeLock.Outcome> outcome;
+        try {
+            outcome = homeLock.acquire();
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (IOException e) {
+            // e.g. the file system does not support locks, which should not stop the application from updating
+            log.log("ERROR: cannot lock Keepup home, other processes may update at the same time: " + e);
+            return Optional.empty();
+        }
+        if (outcome.isPresent()) {
+            if (outcome.get().result == AppHomeLock.Result.NO_UPDATE) {
+                log.log("Another process found no update");
+                return Optional.of(new SharedOutcome(Optional.empty()));
+            }
+            var staged = outcome.get();
+            if (looksLikeJlinkApp(staged.dir, config.appName())) {
+                log.log("Reusing update to version " + staged.version + " staged by another process");
+                return Optional.of(new SharedOutcome(Optional.of(reuse(staged))));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private boolean prepare() {
+        if (preparedAppHomes.add(config.appHome().toPath().toAbsolutePath().normalize())) {
+            log.log("First run");
+            if (config.versionedInstall()) {
+                new VersionedLayout(config.appHome()).collectGarbage(log);
+            }
+            File unpackedApp = IoUtils.unpackedApp(config.appHome());
+            // an update staged by another instance of the application is still waiting to be installed
+            if (unpackedApp.isDirectory() && !isStaged(unpackedApp)) {
+                // we have just updated and not cleaned up yet
+                cleanupPreviousUpdate(unpackedApp);
+                return false;
+            }
+            // delete anything left over by previous runs
+            trash.emptyInBackground();
+        }
+        var appLocation = currentApp();
+        if (!looksLikeJlinkApp(appLocation, config.appName())) {
+            throw new KeepupException(CURRENT_NOT_JLINK_APP, "Home: " + appLocation);
+        }
+        return true;
+    }
+
+    private CompletableFuture<Optional<Candidate<?>>> findVersion(AppDistributor<?> distributor) throws Exception {
+        log.log("Checking for update");
+        return findVersionOf(distributor).thenApply(candidate -> {
+            if (candidate.isEmpty()) {
+                homeLock.recordNoUpdate();
+            }
+            return candidate;
+        });
+    }
+
+    private Optional<Update> findStaged(Candidate<?> candidate) {
+        return homeLock.staged()
+                .filter(staged -> staged.version.equals(candidate.name())
+                        && looksLikeJlinkApp(staged.dir, config.appName()))
+                .map(staged -> {
+                    log.log("Update to version " + staged.version + " has already been staged");
+                    return reuse(staged);
+                });
+    }
+
+    private Update reuse(AppHomeLock.Outcome staged) {
+        homeLock.recordReused(staged.dir);
+        var update = new Update(staged.version, null, Optional.empty(), staged.dir);
+        reusedUpdate = update;
+        return update;
+    }
+
+    private boolean isStaged(File dir) {
+        return homeLock.staged().map(staged -> staged.dir.getAbsoluteFile().equals(dir.getAbsoluteFile()))
+                .orElse(false);
+    }
+
+    private <V extends AppVersion> CompletableFuture<Optional<Candidate<?>>> findVersionOf(
+            AppDistributor<V> distributor) throws Exception {
+        return distributor.findLatestVersion().toCompletableFuture()
+                .thenApply(version -> version.map(v -> new Candidate<>(distributor, v)));
+    }
+
+    private Optional<DeltaUpdate<?>> planDelta(Candidate<?> candidate) {
+        if (config.updateSigningKey().isPresent()) {
+            // a delta update is assembled from individual files, so there's no signed archive to verify
+            log.log("Delta updates cannot be verified with the update signing key, downloading full update");
+            return Optional.empty();
+        }
+        log.log("Trying delta update to version " + candidate.name());
+        try {
+            var delta = planDeltaOf(candidate);
+            if (delta.isEmpty()) {
+                log.log("Delta update not possible, downloading full update");
+            }
+            return delta;
+        } catch (Exception e) {
+            log.log("ERROR: delta update failed, downloading full update: " + e);
+            return Optional.empty();
+        }
+    }
+
+    private <V extends AppVersion> Optional<DeltaUpdate<?>> planDeltaOf(Candidate<V> candidate) throws Exception {
+        return DeltaUpdate.plan(config, (DeltaAppDistributor<V>) candidate.distributor, candidate.version, log)
+                .map(delta -> delta);
+    }
+
+    private Optional<Update> assembleDelta(DeltaUpdate<?> delta) {
+        try {
+            var progress = progress(UpdateProgress.Stage.DOWNLOAD, delta.versionName());
+            var newVersionDir = delta.assemble(updateDir(delta.versionName()), progress);
+            progress.done();
+            return Optional.of(new Update(delta.versionName(), null, Optional.empty(), newVersionDir));
+        } catch (Exception e) {
+            log.log("ERROR: delta update failed, downloading full update: " + e);
+            return Optional.empty();
+        }
+    }
+
+    private Update download(Candidate<?> candidate) throws Exception {
+        return downloadVersion(candidate);
+    }
+
+    private <V extends AppVersion> Update downloadVersion(Candidate<V> candidate) throws Exception {
+        var distributor = candidate.distributor;
+        var version = candidate.version;
+        var uri = distributor.downloadUri(version);
+        var archiveName = uri.map(UpdateStages::fileName);
+        var verifier = UpdateVerifier.of(config, distributor, version);
+
+        if (config.unpackWhileDownloading()) {
+            log.log("Downloading and unpacking version " + version.name());
+            var downloadProgress = progress(UpdateProgress.Stage.DOWNLOAD, version.name());
+            var unpackProgress = progress(UpdateProgress.Stage.UNPACK, version.name());
+            File newVersionDir;
+            try (var stream = new BufferedInputStream(verifier.track(downloadProgress.track(
+                    config.resourceBudget().getDownloadLimiter().limit(distributor.openDownload(version)))), 8192)) {
+                var format = ArchiveFormats.select(config.archiveFormats(), archiveName,
+                        ArchiveFormats.magic(stream));
+                newVersionDir = IoUtils.unpack(stream, updateDir(version.name()), format,
+                        config.resourceBudget(), unpackProgress);
+                downloadProgress.done();
+                unpackProgress.done();
+            }
+            try {
+                verifier.verify();
+            } catch (KeepupException e) {
+                log.log("Update failed integrity check, deleting it");
+                cleanupPreviousUpdate(newVersionDir);
+                throw e;
+            }
+            return new Update(version.name(), null, archiveName, newVersionDir);
+        }
+
+        log.log("Downloading version " + version.name());
+        var progress = progress(UpdateProgress.Stage.DOWNLOAD, version.name());
+        File zip;
+        if (uri.isPresent()) {
+            discardDownload = () -> downloader.discard(uri.get(), version.name());
+            zip = downloader.download(uri.get(), version.name(), progress, verifier);
+        } else {
+            zip = distributor.download(version);
+            verifier.updateFrom(zip, zip.length());
+        }
+        archive = zip;
+        progress.done();
+        try {
+            verifier.verify();
+        } catch (KeepupException e) {
+            log.log("Update failed integrity check, deleting it");
+            zip.delete();
+            throw e;
+        }
+        return new Update(version.name(), zip, archiveName, null);
+    }
+
+    private Void noUpdate() {
+        log.log("No update available");
+        callbacks.onNoUpdate.run();
+        return null;
+    }
+
+    private CompletableFuture<Boolean> verifyUpdate(Update update) {
+        homeLock.release();
+        log.log("Verifying update");
+        return callbacks.onUpdate.apply(update.version, update.archive != null ? update.archive : update.dir)
+                .toCompletableFuture();
+    }
+
+    private Update unpack(Update update) throws Exception {
+        var format = ArchiveFormats.select(config.archiveFormats(), update.archiveName,
+                ArchiveFormats.magic(update.archive));
+        log.log("Unpacking update (" + format.name() + ")");
+        var progress = progress(UpdateProgress.Stage.UNPACK, update.version);
+        var newVersionDir = IoUtils.unpack(update.archive, updateDir(update.version), format,
+                config.resourceBudget(), progress);
+        progress.done();
+        return update.withDir(newVersionDir);
+    }
+
+    private Update prepareImage(Update update) {
+        if (!looksLikeJlinkApp(update.dir, config.appName())) {
+            throw new KeepupException(UPDATE_NOT_JLINK_APP, "Update location: " + update.dir);
+        }
+        setFilePermissions(update.dir, config.appName());
+        generateCdsArchive(update.dir);
+        homeLock.recordStaged(update.version, update.dir);
+        return update;
+    }
+
+    // the archive only speeds up startup, so the update continues even if it cannot be created
+    private void generateCdsArchive(File newVersionDir) {
+        if (!config.generateCdsArchive()) return;
+        log.log("Generating CDS archive");
+        try {
+            new CdsArchiver(config, log).generate(newVersionDir);
+        } catch (IOException e) {
+            log.log("ERROR: could not create CDS archive: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.log("ERROR: interrupted while creating CDS archive");
+        }
+    }
+
+    private UpdateInstaller createInstaller(Update update) throws Exception {
+        log.log("Creating installer");
+        var installer = InstallerCreator.create(config, update.dir);
+        // the archive is only null when the update was unpacked while being downloaded, or assembled from a delta
+        if (update.archive != null && !update.archive.delete()) {
+            throw new KeepupException(CANNOT_REMOVE_UPDATE_ZIP, "Location: " + update.archive);
+        }
+        log.log("Update successful");
+        return installer;
+    }
+
+    private Void discard(Update update) {
+        log.log("Update rejected");
+        if (update == reusedUpdate) {
+            // other processes may still install it
+            return null;
+        }
+        if (update.isUnpacked()) {
+            discardUnpacked(update.dir);
+        }
+        if (update.archive != null) {
+            update.archive.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Delete an update this cycle unpacked. The home lock may have been released since the update was staged, so
+     * it is acquired again first, and the update is kept if another cycle has picked it up in the meantime.
+     */
+    private void discardUnpacked(File dir) {
+        var acquired = false;
+        if (!homeLock.isHeld()) {
+            try {
+                homeLock.acquire();
+                acquired = true;
+            } catch (IOException e) {
+                log.log("ERROR: cannot lock Keepup home, discarding update anyway: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.log("ERROR: interrupted while waiting to discard update, keeping it");
+                return;
+            }
+        }
+        try {
+            if (homeLock.discarded(dir)) {
+                cleanupPreviousUpdate(dir);
+            } else {
+                log.log("Update has been picked up by another update cycle, keeping it");
+            }
+        } finally {
+            if (acquired) {
+                homeLock.release();
+            }
+        }
+    }
+
+    private void cleanupPreviousUpdate(File unpackedApp) {
+        log.log("Cleaning up previous update");
+        try {
+            trash.moveToTrash(unpackedApp);
+            trash.emptyInBackground();
+        } catch (IOException e) {
+            // ignore error
+            log.log("ERROR: " + e);
+        }
+    }
+
+    private File updateDir(String newVersion) throws IOException {
+        var dir = config.versionedInstall()
+                ? new VersionedLayout(config.appHome()).versionDir(newVersion)
+                : IoUtils.unpackedApp(config.appHome());
+        newVersionDir = dir;
+        PendingUpdate.discard(config.appHome(), dir, log);
+        return trash.emptyDir(dir);
+    }
+
+    private ProgressTracker progress(UpdateProgress.Stage stage, String newVersion) {
+        return new ProgressTracker(callbacks.onProgress, stage, newVersion, log, cancellation);
+    }
+
+    private static String fileName(URI uri) {
+        var path = uri.getPath();
+        return path == null ? "" : path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,167 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.AppDistributor;
+import com.athaydes.keepup.api.AppVersion;
+import com.athaydes.keepup.api.KeepupConfig;
+import com.athaydes.keepup.api.KeepupException;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+
+import static com.athaydes.keepup.api.KeepupException.ErrorCode.INTEGRITY_CHECK;
+
+/**
+ * Verifies the SHA-256 hash and signature of an update's zip file, as given by
+ * {@link AppDistributor#expectedSha256(AppVersion)} and {@link AppDistributor#signature(AppVersion)}.
+ * <p>
+ * The hash and signature are computed incrementally, as the bytes are downloaded, so verifying an update
+ * normally does not require reading the zip file again.
+ */
+final class UpdateVerifier {
+
+    private final String expectedSha256;
+    private final MessageDigest digest;
+    private final byte[] expectedSignature;
+    private final Signature signature;
+
+    private UpdateVerifier(String expectedSha256, MessageDigest digest,
+                           byte[] expectedSignature, Signature signature) {
+        this.expectedSha256 = expectedSha256;
+        this.digest = digest;
+        this.expectedSignature = expectedSignature;
+        this.signature = signature;
+    }
+
+    static <V extends AppVersion> UpdateVerifier of(KeepupConfig config,
+                                                    AppDistributor<V> distributor,
+                                                    V version) throws Exception {
+        var expectedSha256 = distributor.expectedSha256(version).orElse(null);
+        var key = config.updateSigningKey().orElse(null);
+        if (expectedSha256 == null && key == null) {
+            return new UpdateVerifier(null, null, null, null);
+        }
+        Signature signature = null;
+        byte[] expectedSignature = null;
+        if (key != null) {
+            // if updates are signed, unsigned updates must be rejected
+            expectedSignature = distributor.signature(version).orElseThrow(() ->
+                    new KeepupException(INTEGRITY_CHECK, "No signature available for version " + version.name()));
+            signature = Signature.getInstance(config.updateSignatureAlgorithm());
+            signature.initVerify(key);
+        }
+        return new UpdateVerifier(expectedSha256,
+                expectedSha256 == null ? null : Hashes.sha256(),
+                expectedSignature, signature);
+    }
+
+    boolean isEnabled() {
+        return digest != null || signature != null;
+    }
+
+    void update(byte[] bytes, int offset, int length) throws IOException {
+        if (length <= 0) return;
+        if (digest != null) {
+            digest.update(bytes, offset, length);
+        }
+        if (signature != null) {
+            try {
+                signature.update(bytes, offset, length);
+            } catch (SignatureException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return a stream that updates this verifier with every byte read from the given stream
+     */
+    InputStream track(InputStream in) {
+        if (!isEnabled()) return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b >= 0) update(new byte[]{(byte) b}, 0, 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var count = super.read(b, off, len);
+                update(b, off, count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Update this verifier with the first bytes of a file, for when they were not downloaded in order
+     * (e.g. a resumed download).
+     */
+    void updateFrom(File file, long length) throws IOException {
+        if (!isEnabled() || length <= 0) return;
+        try (var in = Files.newInputStream(file.toPath())) {
+            var buffer = new byte[64 * 1024];
+            var remaining = length;
+            while (remaining > 0) {
+                var count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count < 0) throw new IOException("File is shorter than expected: " + file);
+                update(buffer, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    /**
+     * Update this verifier with a range of bytes of a file, e.g. a segment of a segmented download that was
+     * just written.
+     *
+     * @param start position of the first byte
+     * @param end   position after the last byte
+     */
+    void updateFrom(FileChannel channel, long start, long end) throws IOException {
+        if (!isEnabled()) return;
+        var buffer = ByteBuffer.allocate(64 * 1024);
+        var position = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            var count = channel.read(buffer, position);
+            if (count < 0) throw new IOException("File is shorter than expected");
+            update(buffer.array(), 0, count);
+            position += count;
+        }
+    }
+
+    /**
+     * @throws KeepupException if the hash or signature of the bytes seen so far do not match the expected ones
+     */
+    void verify() {
+        if (digest != null) {
+            var hash = Hashes.toHex(digest.digest());
+            if (!hash.equalsIgnoreCase(expectedSha256.trim())) {
+                throw new KeepupException(INTEGRITY_CHECK,
+                        "SHA-256 mismatch: expected " + expectedSha256 + " but was " + hash);
+            }
+        }
+        if (signature != null) {
+            boolean valid;
+            try {
+                valid = signature.verify(expectedSignature);
+            } catch (GeneralSecurityException e) {
+                throw new KeepupException(INTEGRITY_CHECK, e);
+            }
+            if (!valid) {
+                throw new KeepupException(INTEGRITY_CHECK, "Invalid signature");
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.athaydes.keepup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+import static com.athaydes.keepup.IoUtils.currentApp;
+
+/**
+ * Install layout where each version of the application lives in its own directory under
+ * {@code <appHome>/versions/}, and the active version is selected by a {@code <appHome>/current} symbolic link
+ * and a {@code <appHome>/current.version} pointer file containing the name of the active version's directory.
+ * <p>
+ * Activating a version only requires atomically renaming a new link (and pointer file) over the existing one, so
+ * the installation is never left half-written. Platforms that do not support symbolic links (e.g. Windows without
+ * the required privilege) only get the pointer file.
+ * <p>
+ * Versions other than the active one and the running one are moved to the {@link Trash} by
+ * {@link #collectGarbage(KeepupLogger)}.
+ */
+final class VersionedLayout {
+
+    static final String VERSIONS = "versions";
+    static final String CURRENT = "current";
+    static final String CURRENT_POINTER = "current.version";
+
+    private final Path appHome;
+    private final Path versionsDir;
+
+    VersionedLayout(File appHome) {
+        this.appHome = appHome.toPath().toAbsolutePath();
+        this.versionsDir = this.appHome.resolve(VERSIONS);
+    }
+
+    File versionDir(String version) {
+        var name = version.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (name.startsWith(".")) name = "_" + name;
+        return versionsDir.resolve(name).toFile();
+    }
+
+    /**
+     * @return the stable location of the active version, to be used to launch the application
+     */
+    File launchDir(File versionDir) {
+        var link = appHome.resolve(CURRENT);
+        return Files.isSymbolicLink(link) ? link.toFile() : versionDir;
+    }
+
+    Optional<File> activeVersion() {
+        var pointer = appHome.resolve(CURRENT_POINTER);
+        if (!Files.isRegularFile(pointer)) return Optional.empty();
+        try {
+            var name = Files.readString(pointer, StandardCharsets.UTF_8).trim();
+            var dir = versionsDir.resolve(name);
+            return name.isEmpty() || !Files.isDirectory(dir) ? Optional.empty() : Optional.of(dir.toFile());
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Make the given version the active one.
+     */
+    void activate(File versionDir, KeepupLogger log) throws IOException {
+        var name = versionDir.toPath().getFileName().toString();
+
+        var tempPointer = Files.createTempFile(appHome, CURRENT_POINTER, ".tmp");
+        Files.writeString(tempPointer, name, StandardCharsets.UTF_8);
+        Files.move(tempPointer, appHome.resolve(CURRENT_POINTER),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        var tempLink = appHome.resolve(CURRENT + ".tmp");
+        try {
+            Files.deleteIfExists(tempLink);
+            Files.createSymbolicLink(tempLink, appHome.relativize(versionDir.toPath().toAbsolutePath()));
+            Files.move(tempLink, appHome.resolve(CURRENT), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            log.log("Cannot create symbolic link to the active version, only the pointer file was updated: " + e);
+            Files.deleteIfExists(tempLink);
+        }
+        log.log("Activated version at " + versionDir);
+    }
+
+    /**
+     * Delete all versions except the active one, the one currently running and the one staged to be activated.
+     */
+    void collectGarbage(KeepupLogger log) {
+        var versions = versionsDir.toFile().listFiles(File::isDirectory);
+        if (versions == null) return;
+        var running = realPath(currentApp().toPath());
+        var active = activeVersion().map(dir -> realPath(dir.toPath())).orElse(null);
+        // another instance of the application may activate the staged version later
+        var staged = AppHomeLock.stagedDir(appHome.toFile(), log).map(dir -> realPath(dir.toPath())).orElse(null);
+        var trash = new Trash(appHome.toFile(), log);
+        for (File version : versions) {
+            var path = realPath(version.toPath());
+            if (path.equals(running) || path.equals(active) || path.equals(staged)) continue;
+            log.log("Deleting old version: " + version.getName());
+            try {
+                trash.moveToTrash(version);
+            } catch (IOException e) {
+                // may be in use by another instance of the application, try again next time
+                log.log("ERROR: " + e);
+            }
+        }
+        trash.emptyInBackground();
+    }
+
+    // the application may be running through the "current" link
+    private static Path realPath(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException e) {
+            return path.toAbsolutePath().normalize();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ArchiveFormat;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The zip {@link ArchiveFormat}.
+ * <p>
+ * Files are unpacked concurrently by {@link ZipUnpacker}, streams are unpacked sequentially.
+ */
+final class ZipFormat implements ArchiveFormat {
+
+    @Override
+    public String name() {
+        return "zip";
+    }
+
+    @Override
+    public boolean matchesName(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    @Override
+    public boolean matchesMagic(byte[] header) {
+        return header.length >= 4 && header[0] == 'P' && header[1] == 'K' && header[2] == 3 && header[3] == 4;
+    }
+
+    @Override
+    public void unpack(InputStream archive, File destinationDir, Context context) throws IOException {
+        var zip = new ZipInputStream(new BufferedInputStream(archive, 8192));
+        var zipEntry = zip.getNextEntry();
+        if (zipEntry == null) {
+            throw new IllegalStateException("Expected at least one entry in the zip file");
+        }
+        var topEntryName = zipEntry.getName();
+        zipEntry = zip.getNextEntry();
+        while (zipEntry != null) {
+            var file = IoUtils.fileFor(zipEntry, destinationDir, topEntryName);
+            if (IoUtils.isDirectory(zipEntry)) {
+                var ok = file.mkdir();
+                if (!ok) throw new IOException("Cannot create new directory: " + file);
+            } else {
+                context.write(zip, file.toPath());
+            }
+            context.entryDone();
+            zipEntry = zip.getNextEntry();
+        }
+    }
+
+    @Override
+    public void unpack(File archive, File destinationDir, Context context) throws IOException {
+        new ZipUnpacker(context).unpack(archive, destinationDir);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
@@ -0,0 +1,182 @@
+package com.athaydes.keepup;
+
+import com.athaydes.keepup.api.ArchiveFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unpacks a zip file using several threads.
+ * <p>
+ * The central directory is read first via {@link ZipFile}, so the directory skeleton can be created before any
+ * file is written, then entries are unpacked concurrently. Entries that are STORED (not compressed) are copied
+ * straight from the zip file's channel with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * which lets the OS copy the bytes without going through the JVM heap.
+ * <p>
+ * As with {@link ZipFormat#unpack(java.io.InputStream, File, ArchiveFormat.Context)}, the first entry of the
+ * zip file must be the single top-level folder, which is not included in the result.
+ */
+final class ZipUnpacker {
+
+    private static final int MAX_THREADS = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+
+    private final ArchiveFormat.Context context;
+
+    ZipUnpacker(ArchiveFormat.Context context) {
+        this.context = context;
+    }
+
+    void unpack(File zipFile, File destinationDir) throws IOException {
+        try (var zip = new ZipFile(zipFile);
+             var channel = FileChannel.open(zipFile.toPath(), StandardOpenOption.READ)) {
+            var entries = Collections.list(zip.entries());
+            if (entries.isEmpty()) {
+                throw new IllegalStateException("Expected at least one entry in the zip file");
+            }
+            var topEntryName = entries.get(0).getName();
+            var files = new ArrayList<ZipEntry>(entries.size());
+            var totalSize = 0L;
+
+            for (ZipEntry entry : entries.subList(1, entries.size())) {
+                var file = fileFor(entry, destinationDir, topEntryName);
+                if (IoUtils.isDirectory(entry)) {
+                    Files.createDirectories(file);
+                    context.entryDone();
+                } else {
+                    Files.createDirectories(file.getParent());
+                    files.add(entry);
+                    totalSize = entry.getSize() < 0 || totalSize < 0 ? -1L : totalSize + entry.getSize();
+                }
+            }
+            context.expectBytes(totalSize);
+
+            var storedDataOffsets = storedDataOffsets(channel);
+            var tasks = new ArrayList<Callable<Void>>(files.size());
+            for (ZipEntry entry : files) {
+                var file = fileFor(entry, destinationDir, topEntryName);
+                var dataOffset = storedDataOffsets.get(entry.getName());
+                tasks.add(() -> {
+                    if (dataOffset == null) {
+                        try (var in = zip.getInputStream(entry)) {
+                            context.write(in, file);
+                        }
+                    } else {
+                        transfer(channel, dataOffset, entry.getSize(), file);
+                    }
+                    context.entryDone();
+                    return null;
+                });
+            }
+            ParallelIo.runAll(tasks, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()),
+                    "unpack", context.resourceBudget());
+        }
+    }
+
+    private void transfer(FileChannel zipChannel, long offset, long size, Path file) throws IOException {
+        context.resourceBudget().getDiskWriteLimiter().acquire(size);
+        try (var out = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            var position = 0L;
+            while (position < size) {
+                var count = zipChannel.transferTo(offset + position, size - position, out);
+                if (count <= 0) {
+                    throw new IOException("Unexpected end of zip file while unpacking " + file);
+                }
+                position += count;
+                context.bytesWritten(count);
+            }
+        }
+    }
+
+    /**
+     * Find where the data of each STORED entry starts, which {@link ZipFile} does not expose.
+     * <p>
+     * If the zip file has a layout this method does not understand (e.g. ZIP64 or a trailing comment longer than
+     * the search window), an empty Map is returned and all entries are read via {@link ZipFile}.
+     */
+    private static Map<String, Long> storedDataOffsets(FileChannel channel) {
+        try {
+            var fileSize = channel.size();
+            var tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIR_SIZE + 0xFFFF);
+            var tail = read(channel, fileSize - tailSize, tailSize);
+            var eocd = -1;
+            for (int i = tailSize - END_OF_CENTRAL_DIR_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIR_SIGNATURE) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) return Map.of();
+            var entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+            var dirSize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+            var dirOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+            if (entryCount == 0xFFFF || dirSize == 0xFFFFFFFFL || dirOffset == 0xFFFFFFFFL) {
+                return Map.of(); // ZIP64
+            }
+
+            var dir = read(channel, dirOffset, (int) dirSize);
+            var result = new HashMap<String, Long>();
+            for (int i = 0, pos = 0; i < entryCount; i++) {
+                if (dir.getInt(pos) != CENTRAL_HEADER_SIGNATURE) return Map.of();
+                var flags = Short.toUnsignedInt(dir.getShort(pos + 8));
+                var method = Short.toUnsignedInt(dir.getShort(pos + 10));
+                var compressedSize = Integer.toUnsignedLong(dir.getInt(pos + 20));
+                var nameLength = Short.toUnsignedInt(dir.getShort(pos + 28));
+                var extraLength = Short.toUnsignedInt(dir.getShort(pos + 30));
+                var commentLength = Short.toUnsignedInt(dir.getShort(pos + 32));
+                var localHeaderOffset = Integer.toUnsignedLong(dir.getInt(pos + 42));
+                var nameBytes = new byte[nameLength];
+                dir.position(pos + 46);
+                dir.get(nameBytes);
+
+                // bit 0: encrypted
+                if (method == ZipEntry.STORED && (flags & 1) == 0 &&
+                        compressedSize != 0xFFFFFFFFL && localHeaderOffset != 0xFFFFFFFFL) {
+                    var localHeader = read(channel, localHeaderOffset, 30);
+                    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) return Map.of();
+                    var localNameLength = Short.toUnsignedInt(localHeader.getShort(26));
+                    var localExtraLength = Short.toUnsignedInt(localHeader.getShort(28));
+                    // ZipFile decodes all names as UTF-8 by default, so they match the names we get here
+                    var name = new String(nameBytes, StandardCharsets.UTF_8);
+                    result.put(name, localHeaderOffset + 30 + localNameLength + localExtraLength);
+                }
+                pos += 46 + nameLength + extraLength + commentLength;
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            return Map.of();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of zip file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static Path fileFor(ZipEntry zipEntry, File destinationDir, String topEntryName) {
+        return IoUtils.fileFor(zipEntry, destinationDir, topEntryName).toPath();
+    }
+}
@@ -1,6 +1,10 @@
 package com.athaydes.keepup.api;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
@@ -12,6 +16,19 @@ import java.util.concurrent.CompletionStage;
  * @see AppVersion
  */
 public interface AppDistributor<V extends AppVersion> {
+    /**
+     * Initialize this distributor with the configuration of the {@link Keepup} instance using it.
+     * <p>
+     * This method is called only once, before any other method. Distributors may use it to obtain
+     * the {@link KeepupConfig#httpTransport()}, for example.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @param config Keepup configuration
+     */
+    default void init(KeepupConfig config) {
+    }
+
     /**
      * Find the latest version of the application and return it if it is not the same as the
      * currently running application.
@@ -23,6 +40,10 @@ public interface AppDistributor<V extends AppVersion> {
 
     /**
      * Download or obtain a zip file for the given version of the application.
+     * <p>
+     * Other archive formats, such as tar.gz, may also be used (see {@link KeepupConfig#archiveFormats()}).
+     * The format is selected by the name of the file given by {@link AppDistributor#downloadUri(AppVersion)},
+     * if any, otherwise by the first bytes of the file.
      *
      * @param version to download or obtain
      * @return zip file containing a jlink image. The zip file must contain a single root folder
@@ -30,4 +51,87 @@ public interface AppDistributor<V extends AppVersion> {
      * @throws Exception on error
      */
     File download(V version) throws Exception;
+
+    /**
+     * Get the URI of the zip file for the given version of the application, if it can be downloaded with
+     * a simple HTTP GET request.
+     * <p>
+     * When a URI is provided, Keepup downloads the zip file itself instead of calling
+     * {@link AppDistributor#download(AppVersion)}. That allows Keepup to keep partial downloads in the
+     * {@link KeepupConfig#appHome()} directory, and resume them in the next update cycle if a download
+     * gets interrupted.
+     * <p>
+     * By default, no URI is provided.
+     *
+     * @param version to download
+     * @return the URI of the zip file for the given version, or empty if the zip file should be obtained
+     * by calling {@link AppDistributor#download(AppVersion)}.
+     */
+    default Optional<URI> downloadUri(V version) {
+        return Optional.empty();
+    }
+
+    /**
+     * Get the expected SHA-256 hash of the zip file for the given version of the application.
+     * <p>
+     * If provided, Keepup computes the hash of the zip file while it's downloaded and rejects the update
+     * if it does not match.
+     * <p>
+     * By default, no hash is provided.
+     *
+     * @param version to download
+     * @return the SHA-256 hash as a hex String, or empty if not available
+     * @throws Exception on error
+     */
+    default Optional<String> expectedSha256(V version) throws Exception {
+        return Optional.empty();
+    }
+
+    /**
+     * Get the signature of the zip file for the given version of the application.
+     * <p>
+     * Only used if {@link KeepupConfig#updateSigningKey()} is provided, in which case updates without a valid
+     * signature are rejected. The signature is verified while the zip file is downloaded.
+     * <p>
+     * By default, no signature is provided.
+     *
+     * @param version to download
+     * @return the signature, created with the algorithm given by {@link KeepupConfig#updateSignatureAlgorithm()},
+     * or empty if not available
+     * @throws Exception on error
+     */
+    default Optional<byte[]> signature(V version) throws Exception {
+        return Optional.empty();
+    }
+
+    /**
+     * Open a stream from which the zip file for the given version of the application can be read
+     * while it is downloaded.
+     * <p>
+     * This method is only used if {@link KeepupConfig#unpackWhileDownloading()} returns true, in which case
+     * Keepup unpacks the update as the bytes arrive, without ever writing the zip file to disk.
+     * <p>
+     * The default implementation opens the file returned by {@link AppDistributor#download(AppVersion)},
+     * deleting it when the stream is closed. Distributors that can provide a stream directly should
+     * override this method.
+     *
+     * @param version to download or obtain
+     * @return stream of a zip file containing a jlink image, as described in
+     * {@link AppDistributor#download(AppVersion)}. Keepup closes the stream when it's done with it.
+     * @throws Exception on error
+     */
+    default InputStream openDownload(V version) throws Exception {
+        var zip = download(version);
+        return new FileInputStream(zip) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    //noinspection ResultOfMethodCallIgnored
+                    zip.delete();
+                }
+            }
+        };
+    }
 }
@@ -0,0 +1,145 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.ArchiveFormats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A format in which updates can be distributed, e.g. zip or tar.gz.
+ * <p>
+ * Whatever the format, an archive must contain a single root folder containing the jlink image of the
+ * application. The root folder itself is not unpacked, only its contents.
+ * <p>
+ * The formats Keepup accepts are given by {@link KeepupConfig#archiveFormats()}. The format of an update is
+ * selected by the name of the file given by {@link AppDistributor#downloadUri(AppVersion)}, if any, and
+ * otherwise by the first bytes of the archive (see {@link ArchiveFormat#matchesMagic(byte[])}).
+ */
+public interface ArchiveFormat {
+
+    /**
+     * Maximum number of bytes passed to {@link ArchiveFormat#matchesMagic(byte[])}.
+     */
+    int MAGIC_BYTES_LENGTH = 512;
+
+    /**
+     * Callbacks used by archive formats while unpacking an update.
+     */
+    interface Context {
+
+        /**
+         * @return the resource budget files should be written within
+         */
+        ResourceBudget resourceBudget();
+
+        /**
+         * Report the total number of bytes that will be written, if known.
+         *
+         * @param totalBytes bytes expected in total, or -1 if unknown
+         */
+        void expectBytes(long totalBytes);
+
+        /**
+         * Write the contents of the given stream into a new file, within the disk-write budget.
+         * The number of bytes written is reported automatically. The stream is not closed.
+         *
+         * @param in   contents of the file
+         * @param file to create
+         * @throws IOException on I/O error
+         */
+        void write(InputStream in, Path file) throws IOException;
+
+        /**
+         * Report bytes written without using {@link Context#write(InputStream, Path)}.
+         *
+         * @param count of bytes written
+         * @throws java.io.InterruptedIOException if the update cycle was cancelled or timed out
+         */
+        void bytesWritten(long count) throws IOException;
+
+        /**
+         * Report that an archive entry (file or directory) was unpacked.
+         *
+         * @throws java.io.InterruptedIOException if the update cycle was cancelled or timed out
+         */
+        void entryDone() throws IOException;
+    }
+
+    /**
+     * @return name of this format
+     */
+    String name();
+
+    /**
+     * @param fileName name of an archive file, e.g. the name of a release asset
+     * @return true if the name indicates an archive in this format, usually by its extension
+     */
+    boolean matchesName(String fileName);
+
+    /**
+     * @param header the first bytes of an archive, at most {@link ArchiveFormat#MAGIC_BYTES_LENGTH}
+     * @return true if the bytes indicate an archive in this format
+     */
+    boolean matchesMagic(byte[] header);
+
+    /**
+     * Unpack an archive while it is read from the given stream.
+     * <p>
+     * The stream may come directly from a network connection. It is closed by the caller.
+     *
+     * @param archive        stream of the archive
+     * @param destinationDir existing, empty directory to unpack into
+     * @param context        unpacking context
+     * @throws IOException on I/O error, or if the archive is invalid
+     */
+    void unpack(InputStream archive, File destinationDir, Context context) throws IOException;
+
+    /**
+     * Unpack an archive file.
+     * <p>
+     * Formats should override this method if they can unpack files faster than streams, e.g. by using
+     * several threads. By default, the file is unpacked with {@link ArchiveFormat#unpack(InputStream, File, Context)}.
+     *
+     * @param archive        the archive file
+     * @param destinationDir existing, empty directory to unpack into
+     * @param context        unpacking context
+     * @throws IOException on I/O error, or if the archive is invalid
+     */
+    default void unpack(File archive, File destinationDir, Context context) throws IOException {
+        try (var in = Files.newInputStream(archive.toPath())) {
+            unpack(in, destinationDir, context);
+        }
+    }
+
+    /**
+     * The zip format, which is unpacked with several threads when the update is a file.
+     *
+     * @return the zip format
+     */
+    static ArchiveFormat zip() {
+        return ArchiveFormats.ZIP;
+    }
+
+    /**
+     * The tar format compressed with gzip.
+     * <p>
+     * Archives compressed with {@link ParallelGzip} are decompressed with several threads when the update is a file,
+     * and with a single thread otherwise, as they are also standard gzip files.
+     *
+     * @return the tar.gz format
+     */
+    static ArchiveFormat tarGz() {
+        return ArchiveFormats.TAR_GZ;
+    }
+
+    /**
+     * @return the formats supported by default: zip and tar.gz
+     */
+    static List<ArchiveFormat> defaults() {
+        return List.of(zip(), tarGz());
+    }
+}
@@ -0,0 +1,168 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.Hashes;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An {@link AppDistributor} that stores the zip files downloaded by another distributor in a shared directory,
+ * so that several applications (or several users of the same application) on the same host only download each
+ * release once.
+ * <p>
+ * Cache entries are keyed by version name and by a hash of where they are downloaded from, and a SHA-256 hash of
+ * each entry is stored alongside it so that corrupted entries are detected and downloaded again.
+ * <p>
+ * Concurrent downloads of the same entry, whether in the same process or not, are serialized by a file lock,
+ * so that only one of them actually downloads the file while the others wait to use the result.
+ * <p>
+ * The cache directory must be writable by all users sharing it. Old entries are not removed automatically.
+ *
+ * @param <V> type of version object
+ */
+public final class CachingAppDistributor<V extends AppVersion> implements AppDistributor<V> {
+
+    // file locks are held by the whole JVM, so threads in the same process must also be serialized
+    private static final Map<Path, ReentrantLock> inProcessLocks = new ConcurrentHashMap<>();
+
+    private final AppDistributor<V> delegate;
+    private final Path cacheDir;
+    private volatile Path appHome;
+
+    /**
+     * @param delegate distributor to obtain new versions from
+     * @param cacheDir shared directory where downloaded zip files are kept
+     */
+    public CachingAppDistributor(AppDistributor<V> delegate, Path cacheDir) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.cacheDir = cacheDir.toAbsolutePath();
+    }
+
+    @Override
+    public void init(KeepupConfig config) {
+        appHome = config.appHome().toPath();
+        delegate.init(config);
+    }
+
+    @Override
+    public CompletionStage<Optional<V>> findLatestVersion() throws Exception {
+        return delegate.findLatestVersion();
+    }
+
+    @Override
+    public Optional<String> expectedSha256(V version) throws Exception {
+        return delegate.expectedSha256(version);
+    }
+
+    @Override
+    public Optional<byte[]> signature(V version) throws Exception {
+        return delegate.signature(version);
+    }
+
+    /**
+     * Obtain the zip file for the given version from the cache, downloading it with the delegate distributor
+     * first if necessary.
+     * <p>
+     * As Keepup deletes the zip file once it's done with it, the returned file is a hard link to the cache entry
+     * or, if that's not possible, a copy of it.
+     */
+    @Override
+    public File download(V version) throws Exception {
+        Files.createDirectories(cacheDir);
+        var name = entryName(version);
+        var entry = cacheDir.resolve(name + ".zip");
+        var hashFile = cacheDir.resolve(name + ".sha256");
+        var lockFile = cacheDir.resolve(name + ".lock");
+
+        // not synchronized, as that would pin the carrier of a virtual Thread during the whole download
+        var inProcessLock = inProcessLocks.computeIfAbsent(lockFile, ignore -> new ReentrantLock());
+        inProcessLock.lock();
+        try (var channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            var lock = channel.lock();
+            try {
+                shareWithAllUsers(lockFile, true);
+                if (!isValid(entry, hashFile)) {
+                    populate(version, name, entry, hashFile);
+                }
+                return linkOrCopy(entry).toFile();
+            } finally {
+                lock.release();
+            }
+        } finally {
+            inProcessLock.unlock();
+        }
+    }
+
+    private String entryName(V version) {
+        var source = delegate.downloadUri(version)
+                .map(URI::toString)
+                .orElse(delegate.getClass().getName());
+        var digest = Hashes.sha256().digest((version.name() + '\n' + source).getBytes(StandardCharsets.UTF_8));
+        var key = Hashes.toHex(digest).substring(0, 32);
+        return version.name().replaceAll("[^A-Za-z0-9._-]", "_") + '-' + key;
+    }
+
+    private static boolean isValid(Path entry, Path hashFile) throws IOException {
+        if (!Files.isRegularFile(entry) || !Files.isRegularFile(hashFile)) return false;
+        var expectedHash = Files.readString(hashFile, StandardCharsets.US_ASCII).trim();
+        return expectedHash.equals(Hashes.sha256Hex(entry));
+    }
+
+    private void populate(V version, String name, Path entry, Path hashFile) throws Exception {
+        var downloaded = delegate.download(version).toPath();
+        var tempFile = Files.createTempFile(cacheDir, name, ".tmp");
+        try {
+            var digest = Hashes.sha256();
+            try (var in = new DigestInputStream(Files.newInputStream(downloaded), digest)) {
+                Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            shareWithAllUsers(tempFile, false);
+            Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // the hash is written last, so an entry without a hash is never considered valid
+            var tempHashFile = Files.createTempFile(cacheDir, name, ".tmp");
+            Files.writeString(tempHashFile, Hashes.toHex(digest.digest()), StandardCharsets.US_ASCII);
+            shareWithAllUsers(tempHashFile, false);
+            Files.move(tempHashFile, hashFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+            Files.deleteIfExists(downloaded);
+        }
+    }
+
+    private Path linkOrCopy(Path entry) throws IOException {
+        var dir = appHome == null ? Path.of(System.getProperty("java.io.tmpdir")) : appHome;
+        var file = Files.createTempFile(dir, "keepup-cached", ".zip");
+        Files.delete(file);
+        try {
+            return Files.createLink(file, entry);
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. the cache is on a different file system
+            return Files.copy(entry, file);
+        }
+    }
+
+    private static void shareWithAllUsers(Path path, boolean writable) {
+        var file = path.toFile();
+        //noinspection ResultOfMethodCallIgnored
+        file.setReadable(true, false);
+        if (writable) {
+            //noinspection ResultOfMethodCallIgnored
+            file.setWritable(true, false);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.Hashes;
+import com.athaydes.keepup.KeepupLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * A small persistent cache used by {@link AppDistributor} implementations to send conditional HTTP requests
+ * when checking for new versions.
+ * <p>
+ * For each key, the cache remembers the {@code ETag} and {@code Last-Modified} validators of the last successful
+ * response, together with a value obtained from it (usually its body). Requests for the same key are then sent
+ * with {@code If-None-Match} and {@code If-Modified-Since} headers and, if the server replies that nothing has
+ * changed, the cached value can be used instead of downloading and parsing the full response again.
+ * <p>
+ * Entries are stored in the {@code keepup-cache} directory under {@link KeepupConfig#appHome()}, so they
+ * survive application restarts.
+ */
+public final class ConditionalRequestCache {
+
+    static final String KEEPUP_CACHE = "keepup-cache";
+
+    private static final ConditionalRequestCache DISABLED = new ConditionalRequestCache(null, null);
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String VALUE = "value";
+
+    private final File dir;
+    private final KeepupLogger log;
+
+    private ConditionalRequestCache(File dir, KeepupLogger log) {
+        this.dir = dir;
+        this.log = log;
+    }
+
+    /**
+     * @param config Keepup configuration
+     * @return a cache that stores its entries in the given configuration's {@link KeepupConfig#appHome()}
+     * and logs errors to its {@link KeepupConfig#keepupLog()}
+     */
+    public static ConditionalRequestCache of(KeepupConfig config) {
+        return new ConditionalRequestCache(new File(config.appHome(), KEEPUP_CACHE),
+                new KeepupLogger(config.keepupLog()));
+    }
+
+    /**
+     * @return a cache that never stores anything, so requests are never conditional
+     */
+    public static ConditionalRequestCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Add the validators of the cached entry with the given key, if any, to a request.
+     *
+     * @param key     of the cache entry
+     * @param request to make conditional
+     * @return the request
+     */
+    public HttpRequest.Builder withValidators(String key, HttpRequest.Builder request) {
+        var entry = load(key);
+        if (entry.containsKey(VALUE)) {
+            var etag = entry.getProperty(ETAG);
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            var lastModified = entry.getProperty(LAST_MODIFIED);
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Check whether a response to a conditional request means that the cached entry is still valid.
+     * <p>
+     * That's the case if the status code is 304 (Not Modified). Servers may also reply to a {@code GET} or
+     * {@code HEAD} request with a matching {@code If-None-Match} header with 412 (Precondition Failed). For other
+     * methods, e.g. a {@code POST} to a GraphQL endpoint, 412 means the request was not performed, so it does not
+     * tell whether the cached value is still valid.
+     *
+     * @param response to a request created with {@link ConditionalRequestCache#withValidators(String, HttpRequest.Builder)}
+     * @return true if the cached value can be used
+     */
+    public boolean isNotModified(HttpResponse<?> response) {
+        var request = response.request();
+        var wasConditional = request.headers().firstValue("If-None-Match").isPresent() ||
+                request.headers().firstValue("If-Modified-Since").isPresent();
+        if (!wasConditional) return false;
+        var status = response.statusCode();
+        if (status == 304) return true;
+        var method = request.method();
+        return status == 412 && (method.equals("GET") || method.equals("HEAD"));
+    }
+
+    /**
+     * @param key of the cache entry
+     * @return the cached value, if any
+     */
+    public Optional<String> get(String key) {
+        return Optional.ofNullable(load(key).getProperty(VALUE));
+    }
+
+    /**
+     * Store the value for the given key, with the validators of the response it was obtained from.
+     * <p>
+     * If the response has no validators, any existing entry is removed as later requests could not be
+     * conditional anyway.
+     *
+     * @param key      of the cache entry
+     * @param response the value was obtained from
+     * @param value    to cache
+     */
+    public void put(String key, HttpResponse<?> response, String value) {
+        if (dir == null) return;
+        var entry = new Properties();
+        response.headers().firstValue(ETAG).ifPresent(etag -> entry.setProperty(ETAG, etag));
+        response.headers().firstValue(LAST_MODIFIED).ifPresent(date -> entry.setProperty(LAST_MODIFIED, date));
+        var file = fileFor(key);
+        try {
+            if (entry.isEmpty()) {
+                Files.deleteIfExists(file.toPath());
+                return;
+            }
+            entry.setProperty(VALUE, value);
+            if (!dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Cache directory cannot be created: " + dir);
+            }
+            // write to a temp file first so that concurrent readers never see a partial entry
+            var tempFile = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+            try (var out = Files.newOutputStream(tempFile)) {
+                entry.store(out, null);
+            }
+            Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // caching is only an optimization
+            log.log("ERROR: cannot cache response: " + e);
+        }
+    }
+
+    private Properties load(String key) {
+        var entry = new Properties();
+        if (dir == null) return entry;
+        var file = fileFor(key);
+        if (file.isFile()) {
+            try (var in = Files.newInputStream(file.toPath())) {
+                entry.load(in);
+            } catch (IOException e) {
+                entry.clear();
+            }
+        }
+        return entry;
+    }
+
+    private File fileFor(String key) {
+        var digest = Hashes.sha256().digest(key.getBytes(StandardCharsets.UTF_8));
+        return new File(dir, Hashes.toHex(digest).substring(0, 32) + ".properties");
+    }
+}
@@ -0,0 +1,42 @@
+package com.athaydes.keepup.api;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * An {@link AppDistributor} that supports delta updates.
+ * <p>
+ * When a new version is found, Keepup first asks for the {@link UpdateManifest} of the new version and compares
+ * it with the files of the currently running application. Only the files that changed are then obtained via
+ * {@link DeltaAppDistributor#openFile(AppVersion, String)}, and the new version is assembled from those and copies
+ * of the unchanged local files.
+ * <p>
+ * If no manifest is available for a version, or the changed files are larger than allowed by
+ * {@link KeepupConfig#maxDeltaUpdateRatio()}, the full zip file is downloaded instead, as with any other
+ * {@link AppDistributor}.
+ * <p>
+ * Delta updates are never used if {@link KeepupConfig#updateSigningKey()} is provided, as only full updates
+ * can have their signature verified.
+ *
+ * @param <V> type of version object
+ */
+public interface DeltaAppDistributor<V extends AppVersion> extends AppDistributor<V> {
+    /**
+     * Get the manifest of the given version of the application.
+     *
+     * @param version of the application
+     * @return the manifest of the version, or empty if none is available
+     * @throws Exception on error
+     */
+    Optional<UpdateManifest> manifest(V version) throws Exception;
+
+    /**
+     * Open a single file of the given version of the application.
+     *
+     * @param version of the application
+     * @param path    of the file, as given by {@link UpdateManifest.Entry#getPath()}
+     * @return stream with the contents of the file. Keepup closes the stream when it's done with it.
+     * @throws Exception on error
+     */
+    InputStream openFile(V version, String path) throws Exception;
+}
@@ -0,0 +1,44 @@
+package com.athaydes.keepup.api;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Not a public class.
+ */
+final class HttpClientTransport implements HttpTransport {
+
+    static final class Shared {
+        // lazily initialized when first used
+        static final HttpTransport INSTANCE = new HttpClientTransport(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build(), BODY_IDLE_TIMEOUT);
+    }
+
+    private final HttpClient client;
+    private final Duration bodyIdleTimeout;
+
+    HttpClientTransport(HttpClient client, Duration bodyIdleTimeout) {
+        this.client = client;
+        this.bodyIdleTimeout = bodyIdleTimeout;
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> bodyHandler) {
+        return client.sendAsync(request, IdleTimeoutSubscriber.wrap(bodyHandler, bodyIdleTimeout));
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request,
+                                    HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        return client.send(request, IdleTimeoutSubscriber.wrap(bodyHandler, bodyIdleTimeout));
+    }
+}
@@ -0,0 +1,86 @@
+package com.athaydes.keepup.api;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The HTTP transport used by Keepup and by {@link AppDistributor} implementations to talk to remote servers.
+ * <p>
+ * By default, a single {@link HttpClient} is shared by all users of {@link HttpTransport#shared()} in the JVM,
+ * so that connections (including TLS sessions) are kept alive and reused across update cycles, and HTTP/2 is
+ * used when the server supports it.
+ * <p>
+ * The transports created by this interface's static methods fail a response with a
+ * {@link java.net.http.HttpTimeoutException} if its body stops receiving data for longer than
+ * {@link HttpTransport#BODY_IDLE_TIMEOUT} (or the timeout given to {@link HttpTransport#of(HttpClient, Duration)}),
+ * as {@link HttpRequest#timeout()} only bounds the wait for the response headers.
+ * <p>
+ * Applications may provide a different transport via {@link KeepupConfig#httpTransport()}, for example to
+ * use a {@link HttpClient} configured with a proxy or an authenticator.
+ */
+public interface HttpTransport {
+
+    /**
+     * The default maximum time to wait for more bytes of a response body while its reader is waiting for them.
+     */
+    Duration BODY_IDLE_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Send a request asynchronously, without blocking the calling Thread.
+     *
+     * @param request     to send
+     * @param bodyHandler response body handler
+     * @param <T>         type of response body
+     * @return the response
+     * @see HttpClient#sendAsync(HttpRequest, HttpResponse.BodyHandler)
+     */
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                     HttpResponse.BodyHandler<T> bodyHandler);
+
+    /**
+     * Send a request, blocking until the response headers are received.
+     *
+     * @param request     to send
+     * @param bodyHandler response body handler
+     * @param <T>         type of response body
+     * @return the response
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the calling Thread is interrupted
+     * @see HttpClient#send(HttpRequest, HttpResponse.BodyHandler)
+     */
+    <T> HttpResponse<T> send(HttpRequest request,
+                             HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException;
+
+    /**
+     * Create a transport backed by the given {@link HttpClient}.
+     *
+     * @param client to use
+     * @return transport using the given client
+     */
+    static HttpTransport of(HttpClient client) {
+        return of(client, BODY_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Create a transport backed by the given {@link HttpClient}.
+     *
+     * @param client          to use
+     * @param bodyIdleTimeout maximum time to wait for more bytes of a response body
+     * @return transport using the given client
+     */
+    static HttpTransport of(HttpClient client, Duration bodyIdleTimeout) {
+        return new HttpClientTransport(client, bodyIdleTimeout);
+    }
+
+    /**
+     * @return the transport shared by all Keepup instances, which is the default value of
+     * {@link KeepupConfig#httpTransport()}.
+     */
+    static HttpTransport shared() {
+        return HttpClientTransport.Shared.INSTANCE;
+    }
+}
@@ -0,0 +1,139 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.KeepupTimer;
+
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Not a public class.
+ * <p>
+ * Fails a response body with a {@link HttpTimeoutException} if no bytes arrive for too long while the body's
+ * consumer is waiting for them. {@link java.net.http.HttpRequest#timeout()} only bounds the wait for the
+ * response headers, so without this, a server that stalls in the middle of a body would block its reader forever.
+ */
+final class IdleTimeoutSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+    private final HttpResponse.BodySubscriber<T> delegate;
+    private final long idleNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private Flow.Subscription subscription;
+    private long demand;
+    private long idleSince;
+    private boolean done;
+    private ScheduledFuture<?> watchdog;
+
+    IdleTimeoutSubscriber(HttpResponse.BodySubscriber<T> delegate, Duration idleTimeout) {
+        this.delegate = delegate;
+        this.idleNanos = idleTimeout.toNanos();
+    }
+
+    static <T> HttpResponse.BodyHandler<T> wrap(HttpResponse.BodyHandler<T> handler, Duration idleTimeout) {
+        return responseInfo -> new IdleTimeoutSubscriber<>(handler.apply(responseInfo), idleTimeout);
+    }
+
+    @Override
+    public CompletionStage<T> getBody() {
+        return delegate.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        lock.lock();
+        try {
+            this.subscription = subscription;
+            idleSince = System.nanoTime();
+            schedule(idleNanos);
+        } finally {
+            lock.unlock();
+        }
+        delegate.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                lock.lock();
+                try {
+                    // the server can only be idle while the consumer waits for more bytes
+                    if (demand == 0) idleSince = System.nanoTime();
+                    demand = n == Long.MAX_VALUE || demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                } finally {
+                    lock.unlock();
+                }
+                subscription.request(n);
+            }
+
+            @Override
+            public void cancel() {
+                finish();
+                subscription.cancel();
+            }
+        });
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        lock.lock();
+        try {
+            if (done) return;
+            if (demand != Long.MAX_VALUE) demand--;
+            idleSince = System.nanoTime();
+            delegate.onNext(item);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (finish()) delegate.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (finish()) delegate.onComplete();
+    }
+
+    private boolean finish() {
+        lock.lock();
+        try {
+            if (done) return false;
+            done = true;
+            if (watchdog != null) watchdog.cancel(false);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void check() {
+        lock.lock();
+        try {
+            if (done) return;
+            var idle = demand > 0 ? System.nanoTime() - idleSince : 0L;
+            if (idle < idleNanos) {
+                schedule(idleNanos - idle);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (finish()) {
+            delegate.onError(new HttpTimeoutException("No data received for " +
+                    TimeUnit.NANOSECONDS.toMillis(idleNanos) + "ms"));
+            subscription.cancel();
+        }
+    }
+
+    private void schedule(long delayNanos) {
+        watchdog = KeepupTimer.get().schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
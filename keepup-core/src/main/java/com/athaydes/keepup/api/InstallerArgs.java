@@ -2,7 +2,9 @@ package com.athaydes.keepup.api;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Arguments provided to the installer.
@@ -18,22 +20,38 @@ public final class InstallerArgs {
     private final Path newVersion;
     private final String appName;
     private final boolean relaunch;
+    private final boolean sync;
+    private final Path appHome;
 
     public InstallerArgs(Path currentVersion, Path newVersion,
                          String appName, boolean relaunch) {
+        this(currentVersion, newVersion, appName, relaunch, false);
+    }
+
+    public InstallerArgs(Path currentVersion, Path newVersion,
+                         String appName, boolean relaunch, boolean sync) {
+        this(currentVersion, newVersion, appName, relaunch, sync, null);
+    }
+
+    public InstallerArgs(Path currentVersion, Path newVersion,
+                         String appName, boolean relaunch, boolean sync, Path appHome) {
         this.currentVersion = currentVersion;
         this.newVersion = newVersion;
         this.appName = appName;
         this.relaunch = relaunch;
+        this.sync = sync;
+        this.appHome = appHome;
     }
 
     public static InstallerArgs of(String[] mainArgs) {
         if (mainArgs.length < 4) {
-            throw new IllegalArgumentException("Expected at least 5 arguments: " +
-                    "currentVersion, newVersion, keepUpLog, appName, relaunch|norelaunch.");
+            throw new IllegalArgumentException("Expected at least 4 arguments: " +
+                    "currentVersion, newVersion, appName, relaunch|norelaunch[, sync|replace[, appHome]].");
         }
         return new InstallerArgs(Paths.get(mainArgs[0]), Paths.get(mainArgs[1]),
-                mainArgs[2], isRelaunch(mainArgs[3]));
+                mainArgs[2], isRelaunch(mainArgs[3]),
+                mainArgs.length > 4 && isSync(mainArgs[4]),
+                mainArgs.length > 5 ? Paths.get(mainArgs[5]) : null);
     }
 
     private static boolean isRelaunch(String arg) {
@@ -47,6 +65,17 @@ public final class InstallerArgs {
         }
     }
 
+    private static boolean isSync(String arg) {
+        switch (arg) {
+            case "sync":
+                return true;
+            case "replace":
+                return false;
+            default:
+                throw new IllegalArgumentException("Invalid argument (should be sync|replace): " + arg);
+        }
+    }
+
     public Path getCurrentVersion() {
         return currentVersion;
     }
@@ -63,12 +92,35 @@ public final class InstallerArgs {
         return relaunch;
     }
 
+    /**
+     * @return whether the installer should only write the files that changed, rather than deleting the
+     * current installation and copying the new version in its place
+     * @see KeepupConfig#syncInstall()
+     */
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * @return the Keepup home directory the new version was staged in, so that the installer can tell other
+     * instances of the application that it has been installed
+     * @see KeepupConfig#appHome()
+     */
+    public Optional<Path> getAppHome() {
+        return Optional.ofNullable(appHome);
+    }
+
     public List<String> toArgs(boolean relaunch) {
-        return List.of(
+        var args = new ArrayList<>(List.of(
                 currentVersion.toFile().getAbsolutePath(),
                 newVersion.toFile().getAbsolutePath(),
                 appName,
-                relaunch ? "relaunch" : "norelaunch"
-        );
+                relaunch ? "relaunch" : "norelaunch",
+                sync ? "sync" : "replace"
+        ));
+        if (appHome != null) {
+            args.add(appHome.toFile().getAbsolutePath());
+        }
+        return args;
     }
 }
@@ -27,6 +27,7 @@ public final class Keepup {
     private volatile Consumer<KeepupException> onError;
     private volatile Runnable doneWithoutUpdate;
     private volatile Consumer<UpdateInstaller> doneWithUpdate;
+    private volatile Consumer<UpdateProgress> onProgress;
 
     public Keepup(KeepupConfig config) {
         this.config = new KeepupConfigWrapper(config);
@@ -35,6 +36,8 @@ public final class Keepup {
         onError = Throwable::printStackTrace;
         doneWithoutUpdate = NO_OP;
         doneWithUpdate = UpdateInstaller::installUpdateOnExit;
+        onProgress = progress -> {
+        };
     }
 
     public KeepupConfig getConfig() {
@@ -45,6 +48,13 @@ public final class Keepup {
      * Define what to do when an update has just been downloaded.
      * <p>
      * By default, this callback simple returns true and the update continues.
+     * <p>
+     * The callback receives the name of the new version and the downloaded zip file or, if
+     * {@link KeepupConfig#unpackWhileDownloading()} is enabled, the directory the update was unpacked into.
+     * Updates assembled from a delta by a {@link DeltaAppDistributor} are also given as a directory.
+     * <p>
+     * The update has already been unpacked when the callback is invoked, and other instances of the application
+     * may start using it, so it is fine for the callback to take a long time, e.g. to ask the user.
      *
      * @param onUpdate callback
      * @return this
@@ -54,6 +64,22 @@ public final class Keepup {
         return this;
     }
 
+    /**
+     * Define what to do when there is progress downloading or unpacking an update.
+     * <p>
+     * The callback is invoked at most a few times per second for each stage of the update, from the Thread
+     * performing the I/O, so it should return quickly (e.g. by handing the event over to a UI Thread).
+     * <p>
+     * By default, this callback does not do anything.
+     *
+     * @param onProgress callback
+     * @return this
+     */
+    public Keepup onProgress(Consumer<UpdateProgress> onProgress) {
+        this.onProgress = Objects.requireNonNull(onProgress);
+        return this;
+    }
+
     /**
      * Define what to do when there is no update available.
      * <p>
@@ -94,8 +120,9 @@ public final class Keepup {
      * <p>
      * If the application does not check for updates more than once with this instance of {@link Keepup},
      * it could use the callbacks here to stop the {@link java.util.concurrent.ExecutorService}
-     * used by Keepup by invoking {@link Keepup#shutdown()}, otherwise the
-     * executor may stop the application from terminating (as it may keep live Threads in the background).
+     * used by Keepup by invoking {@link Keepup#shutdown()}. The default executor does not stop the application
+     * from terminating, but a custom one (see {@link KeepupConfig#executor()}) may keep live Threads in the
+     * background.
      *
      * @param doneWithoutUpdate callback called when an update check ended without an update, for whatever reason
      * @param doneWithUpdate    callback called when an update check results in a successful update.
@@ -115,7 +142,7 @@ public final class Keepup {
      */
     public Updater createUpdater() {
         return new Updater(config, onUpdate, onNoUpdate, onError,
-                doneWithoutUpdate, doneWithUpdate);
+                doneWithoutUpdate, doneWithUpdate, onProgress);
     }
 
     /**
@@ -0,0 +1,97 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.PendingUpdate;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Entry point of an application that installs updates when it starts
+ * (see {@link UpdateInstaller#installOnNextLaunch()}).
+ * <p>
+ * If an update is ready, it is activated and run instead of the current version, passing on the command-line
+ * arguments, and this process exits with the updated application's exit code. Otherwise, the application's
+ * main class runs as usual.
+ * <p>
+ * The application's launcher should run this class, and the following System Properties tell it what to do:
+ * <ul>
+ *     <li>{@code keepup.main}: the application's main class, as {@code <module>/<class>}. The module must be
+ *     resolved (e.g. with {@code --add-modules}), and the package of the main class exported to this module.</li>
+ *     <li>{@code keepup.app}: the name of the application (see {@link KeepupConfig#appName()}).</li>
+ *     <li>{@code keepup.home}: the Keepup home directory, if not the default (see {@link KeepupConfig#appHome()}).</li>
+ * </ul>
+ * For example, with jlink:
+ * <pre>
+ * jlink --launcher my-app=com.athaydes.keepup.core/com.athaydes.keepup.api.KeepupBootstrap \
+ *       --add-options="--add-modules=my.module -Dkeepup.main=my.module/my.pkg.Main -Dkeepup.app=my-app" ...
+ * </pre>
+ * Alternatively, applications may call {@link #activatePendingUpdate(File, String[])} as the first thing
+ * in their own main method.
+ */
+public final class KeepupBootstrap {
+
+    public static final String MAIN_PROPERTY = "keepup.main";
+    public static final String APP_NAME_PROPERTY = "keepup.app";
+    public static final String APP_HOME_PROPERTY = "keepup.home";
+
+    private KeepupBootstrap() {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var main = System.getProperty(MAIN_PROPERTY);
+        if (main == null || main.isBlank()) {
+            throw new IllegalStateException("The " + MAIN_PROPERTY + " System Property must be set");
+        }
+
+        activatePendingUpdate(appHome(), args);
+
+        var separator = main.indexOf('/');
+        Class<?> mainClass;
+        if (separator < 0) {
+            mainClass = Class.forName(main);
+        } else {
+            var moduleName = main.substring(0, separator);
+            var module = ModuleLayer.boot().findModule(moduleName).orElseThrow(() -> new IllegalStateException(
+                    "Module " + moduleName + " is not resolved, use --add-modules=" + moduleName));
+            mainClass = Class.forName(module, main.substring(separator + 1));
+            if (mainClass == null) {
+                throw new ClassNotFoundException(main);
+            }
+        }
+
+        try {
+            mainClass.getMethod("main", String[].class).invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Activate the update that is ready to be installed, if any, then run it and exit with its exit code.
+     * <p>
+     * This method returns normally if no update is ready, or it could not be activated (the error is logged to
+     * the Keepup log), so the current version of the application should run.
+     *
+     * @param appHome the Keepup home directory (see {@link KeepupConfig#appHome()})
+     * @param args    the command-line arguments of the application
+     */
+    public static void activatePendingUpdate(File appHome, String[] args) {
+        var exitCode = PendingUpdate.activate(appHome, args);
+        if (exitCode.isPresent()) {
+            System.exit(exitCode.getAsInt());
+        }
+    }
+
+    private static File appHome() {
+        var appHome = System.getProperty(APP_HOME_PROPERTY);
+        if (appHome != null && !appHome.isBlank()) {
+            return new File(appHome);
+        }
+        var appName = System.getProperty(APP_NAME_PROPERTY);
+        if (appName == null || appName.isBlank()) {
+            throw new IllegalStateException("Either the " + APP_NAME_PROPERTY + " or the " + APP_HOME_PROPERTY +
+                    " System Property must be set");
+        }
+        return new File(System.getProperty("user.home"), "." + appName);
+    }
+}
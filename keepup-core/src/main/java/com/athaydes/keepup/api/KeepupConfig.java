@@ -2,8 +2,11 @@ package com.athaydes.keepup.api;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Configuration to be used by {@link Keepup}.
@@ -33,18 +36,175 @@ public interface KeepupConfig {
     AppDistributor<?> distributor();
 
     /**
-     * @return an {@link ExecutorService} that will be used to run all {@link Keepup} callbacks.
+     * @return an {@link ExecutorService} that will be used to run all {@link Keepup} callbacks, or null to use
+     * Keepup's default executor, which never stops the application from exiting: on Java 21 and later, tasks run on
+     * virtual Threads, otherwise on a small pool of daemon Threads shared by all {@link Keepup} instances, whose
+     * Thread priority is set by {@link KeepupConfig#resourceBudget()} (virtual Threads are not used if the budget
+     * requires background priority). By default, null.
      */
     default ExecutorService executor() {
-        return Executors.newSingleThreadExecutor();
+        return null;
     }
 
     /**
      * @return the location of Keepup's log file.
      * By default, this is a file at {@link KeepupConfig#appHome()} called
      * {@code keepup.log}.
+     * <p>
+     * The log is written in the background. Once it is larger than 1MB or older than 30 days, it is renamed to
+     * {@code keepup.log.1}, and up to 3 previous logs are kept.
      */
     default Path keepupLog() {
         return appHome().toPath().resolve("keepup.log");
     }
+
+    /**
+     * @return whether to unpack updates while they are being downloaded, so that the zip file never needs to
+     * be written to disk. When true, Keepup obtains updates via {@link AppDistributor#openDownload(AppVersion)},
+     * and the {@link Keepup#onUpdate(java.util.function.BiFunction)} callback receives the directory where the
+     * update was unpacked, rather than the zip file. By default, this is false.
+     */
+    default boolean unpackWhileDownloading() {
+        return false;
+    }
+
+    /**
+     * @return the maximum number of concurrent connections used to download an update when the
+     * {@link AppDistributor} provides a {@link AppDistributor#downloadUri(AppVersion)}.
+     * Each connection downloads one segment (byte range) of the file. Segments are only used if the
+     * server supports range requests. Return 1 to always use a single connection. By default, this is 4.
+     */
+    default int downloadSegments() {
+        return 4;
+    }
+
+    /**
+     * @return the minimum size, in bytes, of each segment of a segmented download.
+     * Files smaller than twice this size are always downloaded with a single connection.
+     * By default, this is 8MB.
+     * @see KeepupConfig#downloadSegments()
+     */
+    default long minDownloadSegmentSize() {
+        return 8L * 1024L * 1024L;
+    }
+
+    /**
+     * @return the HTTP transport used to download updates and, by distributors that support it, to check for
+     * new versions. By default, {@link HttpTransport#shared()} is used.
+     */
+    default HttpTransport httpTransport() {
+        return HttpTransport.shared();
+    }
+
+    /**
+     * @return the maximum size of a delta update, as a fraction of the total size of the new version of the
+     * application, for it to be preferred over downloading the full zip file. Only applicable when the
+     * {@link AppDistributor} is a {@link DeltaAppDistributor}. By default, this is 0.5.
+     */
+    default double maxDeltaUpdateRatio() {
+        return 0.5;
+    }
+
+    /**
+     * @return whether the installer should compare the new version with the current installation and only write
+     * the files that changed, create the files that were added and delete the files that were removed, instead
+     * of deleting the whole installation and copying the new version in its place. By default, this is false.
+     */
+    default boolean syncInstall() {
+        return false;
+    }
+
+    /**
+     * @return whether to use a versioned install layout, where each version of the application is unpacked into
+     * its own {@code versions/<name>} directory under {@link KeepupConfig#appHome()}, and installing an update
+     * only means atomically switching the {@code current} symbolic link (and {@code current.version} pointer file)
+     * in {@link KeepupConfig#appHome()} to the new version. The application must then be launched via
+     * {@code <appHome>/current/bin/<appName>}. Old versions are deleted once they are neither active nor running.
+     * By default, this is false, and the running installation is replaced by the new version.
+     */
+    default boolean versionedInstall() {
+        return false;
+    }
+
+    /**
+     * @return whether to generate a Class Data Sharing (CDS) archive for each new version after it is unpacked,
+     * which speeds up the first launch of the new version and of the installer. The archive includes the JDK's
+     * default classes, the installer's classes and, if the image contains a {@code lib/<appName>.classlist} file,
+     * the classes listed in it. Failing to create the archive does not stop the update.
+     * By default, this is false.
+     */
+    default boolean generateCdsArchive() {
+        return false;
+    }
+
+    /**
+     * @return the formats updates may be distributed in. The format of an update is selected by the name of the
+     * file it's downloaded from, if known, otherwise by its first bytes. By default, zip and tar.gz
+     * (see {@link ArchiveFormat#defaults()}).
+     */
+    default List<ArchiveFormat> archiveFormats() {
+        return ArchiveFormat.defaults();
+    }
+
+    /**
+     * @return the public key used to verify the signature of updates, as provided by
+     * {@link AppDistributor#signature(AppVersion)}. If a key is provided, updates without a valid signature
+     * are rejected, and delta updates (see {@link DeltaAppDistributor}) are disabled.
+     * By default, no key is provided and signatures are not checked.
+     */
+    default Optional<PublicKey> updateSigningKey() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return the {@link java.security.Signature} algorithm used to verify the signature of updates.
+     * By default, {@code SHA256withRSA}.
+     */
+    default String updateSignatureAlgorithm() {
+        return "SHA256withRSA";
+    }
+
+    /**
+     * @return the maximum time to wait for the application's latest version to be found, after which the update
+     * cycle fails with a {@link java.util.concurrent.TimeoutException} as the cause of the error.
+     * By default, there is no time limit.
+     */
+    default Optional<Duration> checkTimeout() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return the maximum time the download of an update may take, including delta updates and, if
+     * {@link KeepupConfig#unpackWhileDownloading()} is enabled, unpacking the update.
+     * Partial downloads are kept after a timeout, so the next update cycle can resume them.
+     * By default, there is no time limit.
+     */
+    default Optional<Duration> downloadTimeout() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return the maximum time unpacking and preparing an update may take.
+     * By default, there is no time limit.
+     */
+    default Optional<Duration> unpackTimeout() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return the maximum time creating the {@link UpdateInstaller} may take.
+     * By default, there is no time limit.
+     */
+    default Optional<Duration> installTimeout() {
+        return Optional.empty();
+    }
+
+    /**
+     * @return limits on the download rate, disk write rate and Thread priority used by Keepup while it updates
+     * the application. The budget is shared by all of Keepup's I/O, including the {@link AppDistributor}'s.
+     * By default, no limits are applied.
+     */
+    default ResourceBudget resourceBudget() {
+        return ResourceBudget.unlimited();
+    }
 }
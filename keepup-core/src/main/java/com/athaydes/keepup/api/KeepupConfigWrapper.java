@@ -1,7 +1,13 @@
 package com.athaydes.keepup.api;
 
+import com.athaydes.keepup.KeepupExecutors;
+
 import java.io.File;
 import java.nio.file.Path;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -13,13 +19,50 @@ final class KeepupConfigWrapper implements KeepupConfig {
     private final AppDistributor distributor;
     private final ExecutorService executorService;
     private final Path keepupLog;
+    private final boolean unpackWhileDownloading;
+    private final int downloadSegments;
+    private final long minDownloadSegmentSize;
+    private final HttpTransport httpTransport;
+    private final double maxDeltaUpdateRatio;
+    private final boolean syncInstall;
+    private final boolean versionedInstall;
+    private final boolean generateCdsArchive;
+    private final List<ArchiveFormat> archiveFormats;
+    private final Optional<PublicKey> updateSigningKey;
+    private final String updateSignatureAlgorithm;
+    private final Optional<Duration> checkTimeout;
+    private final Optional<Duration> downloadTimeout;
+    private final Optional<Duration> unpackTimeout;
+    private final Optional<Duration> installTimeout;
+    private final ResourceBudget resourceBudget;
 
     public KeepupConfigWrapper(KeepupConfig delegate) {
         this.appName = delegate.appName();
         this.appHome = delegate.appHome();
         this.distributor = delegate.distributor();
-        this.executorService = delegate.executor();
         this.keepupLog = delegate.keepupLog();
+        this.unpackWhileDownloading = delegate.unpackWhileDownloading();
+        this.downloadSegments = delegate.downloadSegments();
+        this.minDownloadSegmentSize = delegate.minDownloadSegmentSize();
+        this.httpTransport = delegate.httpTransport();
+        this.maxDeltaUpdateRatio = delegate.maxDeltaUpdateRatio();
+        this.syncInstall = delegate.syncInstall();
+        this.versionedInstall = delegate.versionedInstall();
+        this.generateCdsArchive = delegate.generateCdsArchive();
+        this.archiveFormats = List.copyOf(delegate.archiveFormats());
+        this.updateSigningKey = delegate.updateSigningKey();
+        this.updateSignatureAlgorithm = delegate.updateSignatureAlgorithm();
+        this.checkTimeout = delegate.checkTimeout();
+        this.downloadTimeout = delegate.downloadTimeout();
+        this.unpackTimeout = delegate.unpackTimeout();
+        this.installTimeout = delegate.installTimeout();
+        this.resourceBudget = delegate.resourceBudget();
+
+        var executor = delegate.executor();
+        this.executorService = executor == null ? KeepupExecutors.newDefaultExecutor(resourceBudget) : executor;
+
+        // only initialize the distributor after all config values are available
+        distributor.init(this);
     }
 
     @Override
@@ -46,4 +89,84 @@ final class KeepupConfigWrapper implements KeepupConfig {
     public Path keepupLog() {
         return keepupLog;
     }
+
+    @Override
+    public boolean unpackWhileDownloading() {
+        return unpackWhileDownloading;
+    }
+
+    @Override
+    public int downloadSegments() {
+        return downloadSegments;
+    }
+
+    @Override
+    public long minDownloadSegmentSize() {
+        return minDownloadSegmentSize;
+    }
+
+    @Override
+    public HttpTransport httpTransport() {
+        return httpTransport;
+    }
+
+    @Override
+    public double maxDeltaUpdateRatio() {
+        return maxDeltaUpdateRatio;
+    }
+
+    @Override
+    public boolean syncInstall() {
+        return syncInstall;
+    }
+
+    @Override
+    public boolean versionedInstall() {
+        return versionedInstall;
+    }
+
+    @Override
+    public boolean generateCdsArchive() {
+        return generateCdsArchive;
+    }
+
+    @Override
+    public List<ArchiveFormat> archiveFormats() {
+        return archiveFormats;
+    }
+
+    @Override
+    public Optional<PublicKey> updateSigningKey() {
+        return updateSigningKey;
+    }
+
+    @Override
+    public String updateSignatureAlgorithm() {
+        return updateSignatureAlgorithm;
+    }
+
+    @Override
+    public Optional<Duration> checkTimeout() {
+        return checkTimeout;
+    }
+
+    @Override
+    public Optional<Duration> downloadTimeout() {
+        return downloadTimeout;
+    }
+
+    @Override
+    public Optional<Duration> unpackTimeout() {
+        return unpackTimeout;
+    }
+
+    @Override
+    public Optional<Duration> installTimeout() {
+        return installTimeout;
+    }
+
+    @Override
+    public ResourceBudget resourceBudget() {
+        return resourceBudget;
+    }
 }
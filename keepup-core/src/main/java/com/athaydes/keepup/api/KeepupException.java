@@ -1,5 +1,12 @@
 package com.athaydes.keepup.api;
 
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 /**
@@ -24,30 +31,98 @@ public class KeepupException extends RuntimeException {
         CURRENT_NOT_JLINK_APP,
         UPDATE_NOT_JLINK_APP,
         CANNOT_REMOVE_UPDATE_ZIP,
+        INTEGRITY_CHECK,
     }
 
     private final ErrorCode errorCode;
+    private final Duration retryAfter;
 
     public KeepupException(ErrorCode errorCode, Throwable cause) {
         super(cause);
         this.errorCode = errorCode;
+        this.retryAfter = null;
     }
 
     public KeepupException(ErrorCode errorCode, String message) {
+        this(errorCode, message, null);
+    }
+
+    /**
+     * @param errorCode  error code
+     * @param message    error message
+     * @param retryAfter how long the server asked clients to wait before trying again, or null if unknown
+     */
+    public KeepupException(ErrorCode errorCode, String message, Duration retryAfter) {
         super(message);
         this.errorCode = errorCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Create an exception for an unexpected HTTP response, remembering how long the server asked clients to wait
+     * before trying again, if it did so with a {@code Retry-After} header or with the
+     * {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} headers used by GitHub.
+     *
+     * @param errorCode error code
+     * @param message   error message
+     * @param response  the unexpected response
+     * @return the exception
+     */
+    public static KeepupException fromResponse(ErrorCode errorCode, String message, HttpResponse<?> response) {
+        return new KeepupException(errorCode, message, retryAfter(response).orElse(null));
     }
 
     public ErrorCode getErrorCode() {
         return errorCode;
     }
 
+    /**
+     * @return how long the server asked clients to wait before trying again, if known.
+     * Scheduled checks (see {@link Updater#scheduleChecks(UpdateSchedule)}) do not run again before that.
+     */
+    public Optional<Duration> getRetryAfter() {
+        return Optional.ofNullable(retryAfter);
+    }
+
+    private static Optional<Duration> retryAfter(HttpResponse<?> response) {
+        var headers = response.headers();
+        var retryAfter = headers.firstValue("Retry-After").map(String::trim);
+        if (retryAfter.isPresent()) {
+            var value = retryAfter.get();
+            try {
+                return Optional.of(Duration.ofSeconds(Math.max(0L, Long.parseLong(value))));
+            } catch (NumberFormatException e) {
+                try {
+                    var date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                    return Optional.of(untilOrZero(date));
+                } catch (DateTimeParseException e2) {
+                    // ignore invalid header
+                }
+            }
+        }
+        if (headers.firstValue("X-RateLimit-Remaining").map(String::trim).filter("0"::equals).isPresent()) {
+            try {
+                return headers.firstValue("X-RateLimit-Reset")
+                        .map(reset -> untilOrZero(Instant.ofEpochSecond(Long.parseLong(reset.trim()))));
+            } catch (NumberFormatException e) {
+                // ignore invalid header
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Duration untilOrZero(Instant instant) {
+        var duration = Duration.between(Instant.now(), instant);
+        return duration.isNegative() ? Duration.ZERO : duration;
+    }
+
     @Override
     public String toString() {
         return "KeepupException{" +
                 "errorCode=" + errorCode +
                 ", cause=" + getCause() +
                 ", message=" + getMessage() +
+                (retryAfter == null ? "" : ", retryAfter=" + retryAfter) +
                 '}';
     }
 }
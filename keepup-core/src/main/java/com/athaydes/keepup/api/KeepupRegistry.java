@@ -0,0 +1,113 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.KeepupExecutors;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Updates several applications hosted by the same process, e.g. tools started by a common launcher.
+ * <p>
+ * Each application keeps its own {@link Keepup} instance, callbacks and {@link KeepupConfig#appHome()}, and its
+ * update cycles are independent of the others'. Unless their configuration says otherwise, all applications
+ * share the same executor Threads (see {@link KeepupConfig#executor()}), which are made enough for all of them
+ * to update at the same time, the same HTTP client (see {@link HttpTransport#shared()}) and, if their
+ * distributors are wrapped in a {@link CachingAppDistributor}, the same download cache.
+ */
+public final class KeepupRegistry {
+
+    private final Map<String, Registration> apps = new LinkedHashMap<>();
+
+    private static final class Registration {
+        final Keepup keepup;
+        final Updater updater;
+        final Path appHome;
+
+        Registration(Keepup keepup, Updater updater, Path appHome) {
+            this.keepup = keepup;
+            this.updater = updater;
+            this.appHome = appHome;
+        }
+    }
+
+    /**
+     * Create an empty registry. Applications are added with {@link #register(Keepup)}.
+     */
+    public KeepupRegistry() {
+    }
+
+    /**
+     * Register an application.
+     * <p>
+     * The callbacks of the given {@link Keepup} must be set before it is registered.
+     *
+     * @param keepup of the application
+     * @return the updater of the application, which can also be used to update it on its own
+     * @throws IllegalArgumentException if an application with the same name or home is already registered
+     */
+    public synchronized Updater register(Keepup keepup) {
+        var config = keepup.getConfig();
+        var appHome = config.appHome().toPath().toAbsolutePath().normalize();
+        for (var app : apps.values()) {
+            if (app.appHome.equals(appHome)) {
+                throw new IllegalArgumentException("Another application is registered with the same appHome: " +
+                        app.keepup.getConfig().appName());
+            }
+        }
+        if (apps.containsKey(config.appName())) {
+            throw new IllegalArgumentException("Application is already registered: " + config.appName());
+        }
+        var updater = keepup.createUpdater();
+        apps.put(config.appName(), new Registration(keepup, updater, appHome));
+        KeepupExecutors.ensureSharedPoolSize(apps.size());
+        return updater;
+    }
+
+    /**
+     * @param appName name of a registered application
+     * @return the updater of the application
+     * @throws IllegalArgumentException if no application with the given name is registered
+     */
+    public synchronized Updater updater(String appName) {
+        var app = apps.get(appName);
+        if (app == null) {
+            throw new IllegalArgumentException("Application is not registered: " + appName);
+        }
+        return app.updater;
+    }
+
+    /**
+     * Check for updates of all registered applications at the same time.
+     *
+     * @return the update cycle of each application, by application name
+     * @see Updater#checkForUpdate()
+     */
+    public synchronized Map<String, UpdateCycle> checkForUpdates() {
+        var cycles = new LinkedHashMap<String, UpdateCycle>(apps.size());
+        apps.forEach((appName, app) -> cycles.put(appName, app.updater.checkForUpdate()));
+        return cycles;
+    }
+
+    /**
+     * Check for updates of all registered applications periodically. Each application follows the
+     * schedule on its own, so their checks are spread randomly.
+     *
+     * @param schedule when to check for updates
+     * @see Updater#scheduleChecks(UpdateSchedule)
+     */
+    public synchronized void scheduleChecks(UpdateSchedule schedule) {
+        apps.values().forEach(app -> app.updater.scheduleChecks(schedule));
+    }
+
+    /**
+     * Stop scheduled checks, and shut down the executors of all registered applications.
+     * Update cycles that are already running are allowed to complete.
+     */
+    public synchronized void shutdown() {
+        for (var app : apps.values()) {
+            app.updater.stopScheduledChecks();
+            app.keepup.shutdown();
+        }
+    }
+}
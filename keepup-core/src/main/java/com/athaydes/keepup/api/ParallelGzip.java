@@ -0,0 +1,182 @@
+package com.athaydes.keepup.api;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses data in the gzip format using several threads, so that it can also be decompressed with
+ * several threads.
+ * <p>
+ * The input is split into blocks, and each block is compressed into a separate gzip member. As the gzip format
+ * allows several members to be concatenated, the result can be decompressed by any gzip tool. Each member's
+ * header has an extra field with ID {@code KP} containing the size of the whole member (4 bytes, little-endian),
+ * which lets Keepup find where each member starts without decompressing the previous ones, so that members can be
+ * decompressed in parallel.
+ * <p>
+ * To distribute an update as a tar.gz file compressed this way, run this class with the tar file and the
+ * destination file as arguments, or with no arguments to compress standard input into standard output:
+ *
+ * <pre>
+ * tar cf my-app.tar my-app
+ * java -p keepup-core.jar -m com.athaydes.keepup.core/com.athaydes.keepup.api.ParallelGzip my-app.tar my-app.tar.gz
+ * </pre>
+ */
+public final class ParallelGzip {
+
+    /**
+     * Default size of the blocks compressed separately (1 MiB).
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER_SIZE = 20;
+    private static final int TRAILER_SIZE = 8;
+
+    private ParallelGzip() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            compress(System.in, System.out);
+            System.out.flush();
+        } else if (args.length == 2) {
+            try (var in = Files.newInputStream(Path.of(args[0]));
+                 var out = Files.newOutputStream(Path.of(args[1]))) {
+                compress(in, out);
+            }
+        } else {
+            System.err.println("Usage: ParallelGzip [<input> <output>]");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compress the given stream with the default block size, the best compression level and one thread per
+     * available processor.
+     *
+     * @param in  stream to compress. It is not closed by this method.
+     * @param out stream to write the compressed data to. It is not closed by this method.
+     * @throws IOException on I/O error
+     */
+    public static void compress(InputStream in, OutputStream out) throws IOException {
+        compress(in, out, DEFAULT_BLOCK_SIZE, Deflater.BEST_COMPRESSION,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Compress the given stream.
+     * <p>
+     * Larger blocks compress slightly better, but limit how many threads can be used to decompress small files.
+     *
+     * @param in        stream to compress. It is not closed by this method.
+     * @param out       stream to write the compressed data to. It is not closed by this method.
+     * @param blockSize size of the blocks compressed separately, at most 64 MiB
+     * @param level     compression level, from 0 to 9 (see {@link Deflater})
+     * @param threads   number of threads to use
+     * @throws IOException on I/O error
+     */
+    public static void compress(InputStream in, OutputStream out,
+                                int blockSize, int level, int threads) throws IOException {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must be between 1 and " + MAX_BLOCK_SIZE);
+        }
+        var pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            var thread = new Thread(runnable, "keepup-gzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var pending = new ArrayDeque<Future<byte[]>>();
+        var bufferedOut = new BufferedOutputStream(out, 64 * 1024);
+        try {
+            var first = true;
+            while (true) {
+                var block = in.readNBytes(blockSize);
+                // an empty input still needs one member to be a valid gzip file
+                if (block.length == 0 && !first) break;
+                first = false;
+                pending.add(pool.submit(() -> member(block, level)));
+                // bound memory usage by only keeping a few blocks in flight
+                if (pending.size() >= 2 * threads) {
+                    bufferedOut.write(next(pending));
+                }
+                if (block.length < blockSize) break;
+            }
+            while (!pending.isEmpty()) {
+                bufferedOut.write(next(pending));
+            }
+            bufferedOut.flush();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static byte[] next(ArrayDeque<Future<byte[]>> pending) throws IOException {
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Compression interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    private static byte[] member(byte[] block, int level) {
+        var deflater = new Deflater(level, true);
+        var result = new ByteArrayOutputStream(block.length / 2 + HEADER_SIZE + TRAILER_SIZE);
+        var buffer = new byte[64 * 1024];
+        try {
+            result.write(new byte[HEADER_SIZE], 0, HEADER_SIZE); // written below, once the size is known
+            deflater.setInput(block);
+            deflater.finish();
+            while (!deflater.finished()) {
+                var count = deflater.deflate(buffer);
+                result.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+        var crc = new CRC32();
+        crc.update(block);
+        writeInt(result, (int) crc.getValue());
+        writeInt(result, block.length);
+
+        var bytes = result.toByteArray();
+        var header = new byte[]{
+                0x1f, (byte) 0x8b, // magic
+                8, // deflate
+                4, // FEXTRA
+                0, 0, 0, 0, // mtime
+                0, // extra flags
+                (byte) 255, // unknown OS
+                8, 0, // extra field length
+                'K', 'P', 4, 0, // subfield ID and length
+                0, 0, 0, 0 // member size
+        };
+        var size = bytes.length;
+        header[16] = (byte) size;
+        header[17] = (byte) (size >>> 8);
+        header[18] = (byte) (size >>> 16);
+        header[19] = (byte) (size >>> 24);
+        System.arraycopy(header, 0, bytes, 0, HEADER_SIZE);
+        return bytes;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
@@ -0,0 +1,126 @@
+package com.athaydes.keepup.api;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token-bucket rate limiter for bytes.
+ * <p>
+ * A single instance may be shared by many threads and streams, in which case their combined throughput is
+ * limited. Up to one second worth of bytes may be used in a burst after the limiter has been idle.
+ *
+ * @see ResourceBudget
+ */
+public final class RateLimiter {
+
+    private static final RateLimiter UNLIMITED = new RateLimiter(0L);
+
+    private final long bytesPerSecond;
+
+    // guarded by this
+    private double tokens;
+    private long lastRefill;
+
+    private RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @param bytesPerSecond maximum rate. If zero or negative, the limiter is unlimited.
+     * @return a new rate limiter
+     */
+    public static RateLimiter of(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? new RateLimiter(bytesPerSecond) : UNLIMITED;
+    }
+
+    /**
+     * @return a limiter that never blocks
+     */
+    public static RateLimiter unlimited() {
+        return UNLIMITED;
+    }
+
+    public boolean isUnlimited() {
+        return bytesPerSecond <= 0;
+    }
+
+    /**
+     * Take the given number of bytes from the budget, blocking for as long as necessary to stay within
+     * the maximum rate.
+     *
+     * @param bytes number of bytes about to be, or just, transferred
+     * @throws InterruptedIOException if the current Thread is interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        if (isUnlimited() || bytes <= 0) return;
+        long waitNanos;
+        synchronized (this) {
+            var now = System.nanoTime();
+            tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+
+            // going into debt lets concurrent callers queue up fairly, each one waiting for its own share
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0L : (long) (-tokens * 1e9 / bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling I/O");
+            }
+        }
+    }
+
+    /**
+     * @param in stream to limit
+     * @return a stream that limits the rate at which bytes are read from the given stream
+     */
+    public InputStream limit(InputStream in) {
+        if (isUnlimited()) return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b >= 0) acquire(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var count = super.read(b, off, len);
+                acquire(count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * @param out stream to limit
+     * @return a stream that limits the rate at which bytes are written to the given stream
+     */
+    public OutputStream limit(OutputStream out) {
+        if (isUnlimited()) return out;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                acquire(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.athaydes.keepup.api;
+
+/**
+ * Limits on the resources Keepup may use while updating the application in the background.
+ * <p>
+ * The same budget is shared by all downloads, unpacking and copying done by Keepup and by the
+ * {@link AppDistributor}, so limits apply to their combined throughput.
+ *
+ * @see KeepupConfig#resourceBudget()
+ */
+public final class ResourceBudget {
+
+    private static final ResourceBudget UNLIMITED = new ResourceBudget(0L, 0L, false);
+
+    private final RateLimiter downloadLimiter;
+    private final RateLimiter diskWriteLimiter;
+    private final boolean backgroundPriority;
+
+    /**
+     * @param maxDownloadBytesPerSecond  maximum download rate, or zero for no limit
+     * @param maxDiskWriteBytesPerSecond maximum disk write rate, or zero for no limit
+     * @param backgroundPriority         whether threads created by Keepup should run with the lowest priority
+     */
+    public ResourceBudget(long maxDownloadBytesPerSecond,
+                          long maxDiskWriteBytesPerSecond,
+                          boolean backgroundPriority) {
+        this.downloadLimiter = RateLimiter.of(maxDownloadBytesPerSecond);
+        this.diskWriteLimiter = RateLimiter.of(maxDiskWriteBytesPerSecond);
+        this.backgroundPriority = backgroundPriority;
+    }
+
+    /**
+     * @return a budget without any limits
+     */
+    public static ResourceBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    public RateLimiter getDownloadLimiter() {
+        return downloadLimiter;
+    }
+
+    public RateLimiter getDiskWriteLimiter() {
+        return diskWriteLimiter;
+    }
+
+    /**
+     * @return whether threads created by Keepup should run with {@link Thread#MIN_PRIORITY}.
+     * Notice that thread priorities are only a hint, and some platforms ignore them.
+     */
+    public boolean isBackgroundPriority() {
+        return backgroundPriority;
+    }
+
+    /**
+     * Set the priority of the given Thread according to this budget.
+     *
+     * @param thread to configure
+     * @return the thread
+     */
+    public Thread configure(Thread thread) {
+        if (backgroundPriority) {
+            thread.setPriority(Thread.MIN_PRIORITY);
+        }
+        return thread;
+    }
+}
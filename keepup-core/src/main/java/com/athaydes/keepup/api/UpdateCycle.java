@@ -0,0 +1,60 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.KeepupStateMachine;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A Keepup update cycle started by {@link Updater#checkForUpdate()}.
+ * <p>
+ * The callbacks given to {@link Keepup} are still invoked as the cycle progresses. This handle can be used
+ * to wait for the cycle to end, or to cancel it.
+ */
+public final class UpdateCycle {
+
+    private final KeepupStateMachine stateMachine;
+    private final CompletableFuture<Optional<UpdateInstaller>> result;
+
+    UpdateCycle(KeepupStateMachine stateMachine) {
+        this.stateMachine = stateMachine;
+        this.result = stateMachine.start();
+    }
+
+    /**
+     * The result of the cycle, which completes just before the {@code doneWithUpdate}, {@code doneWithoutUpdate}
+     * and {@code onError} callbacks are invoked.
+     * <p>
+     * It completes with the {@link UpdateInstaller} if an update is ready to be installed, or empty if there
+     * was no update or the update was rejected. If the cycle fails, it fails with a {@link KeepupException}
+     * (whose cause is a {@link java.util.concurrent.TimeoutException} if a stage ran past its deadline,
+     * see {@link KeepupConfig#downloadTimeout()}, for example). If the cycle is cancelled,
+     * it fails with a {@link java.util.concurrent.CancellationException}.
+     *
+     * @return the result of the cycle
+     */
+    public CompletionStage<Optional<UpdateInstaller>> result() {
+        return result.minimalCompletionStage();
+    }
+
+    /**
+     * Cancel this cycle.
+     * <p>
+     * The download or unpacking in progress is interrupted, and the partial update is deleted. No error is
+     * reported for a cancelled cycle, only {@code doneWithoutUpdate} is invoked, once the stage in progress
+     * has stopped, which is also when the cycle completes.
+     *
+     * @return true if the cycle was cancelled, false if it had already completed or was already ending
+     */
+    public boolean cancel() {
+        return stateMachine.cancel();
+    }
+
+    /**
+     * @return whether this cycle has completed, normally, with an error or by being cancelled
+     */
+    public boolean isDone() {
+        return result.isDone();
+    }
+}
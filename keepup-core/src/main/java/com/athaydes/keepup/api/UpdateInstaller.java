@@ -40,4 +40,19 @@ public interface UpdateInstaller {
      * abnormally due to a hard crash, the installer may never run.
      */
     void installUpdateOnExit();
+
+    /**
+     * Marks the downloaded update as ready to be installed the next time the application starts.
+     * <p>
+     * Nothing runs when this process exits, so it can exit immediately, and a hard crash cannot stop the update
+     * from being installed. The application must be started via {@link KeepupBootstrap}, which activates the
+     * update before the application's own code runs. With a versioned install
+     * (see {@link KeepupConfig#versionedInstall()}), that takes only milliseconds.
+     * <p>
+     * The installers created by Keepup always support this method. The default implementation, for
+     * installers created by other code, throws {@link UnsupportedOperationException}.
+     */
+    default void installOnNextLaunch() {
+        throw new UnsupportedOperationException("installOnNextLaunch");
+    }
 }
@@ -0,0 +1,169 @@
+package com.athaydes.keepup.api;
+
+import com.athaydes.keepup.Hashes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * A manifest listing every file of an application image, with its size and SHA-256 hash.
+ * <p>
+ * Publishing a manifest with each release allows Keepup to perform delta updates, where only the files that
+ * changed since the currently installed version are downloaded (see {@link DeltaAppDistributor}).
+ * <p>
+ * A manifest is a text file with one line per file, in the format {@code <sha-256> <size> <path>},
+ * where the path is relative to the root of the image and always uses {@code /} as separator.
+ * It can be created from a jlink image with {@link UpdateManifest#of(Path)} and
+ * {@link UpdateManifest#writeTo(OutputStream)}.
+ */
+public final class UpdateManifest {
+
+    /**
+     * An entry in a manifest.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final String sha256;
+
+        public Entry(String path, long size, String sha256) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        /**
+         * @return path of the file relative to the root of the image, using {@code /} as separator
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return SHA-256 hash of the file's contents, as a lower-case hex String
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        boolean sameContentsAs(Entry other) {
+            return size == other.size && sha256.equals(other.sha256);
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    public UpdateManifest(Collection<Entry> entries) {
+        var map = new TreeMap<String, Entry>();
+        for (Entry entry : entries) {
+            map.put(entry.getPath(), entry);
+        }
+        this.entries = Collections.unmodifiableMap(map);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public Optional<Entry> get(String path) {
+        return Optional.ofNullable(entries.get(path));
+    }
+
+    /**
+     * @return sum of the sizes of all files in the manifest
+     */
+    public long totalSize() {
+        return entries.values().stream().mapToLong(Entry::getSize).sum();
+    }
+
+    /**
+     * @param other manifest
+     * @return the entries of this manifest which do not exist, or have different contents, in the other manifest
+     */
+    public Collection<Entry> changedSince(UpdateManifest other) {
+        return entries.values().stream()
+                .filter(entry -> other.get(entry.getPath())
+                        .map(otherEntry -> !entry.sameContentsAs(otherEntry))
+                        .orElse(true))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Write this manifest in the format described in the documentation of this class.
+     *
+     * @param out stream to write to. It is not closed by this method.
+     * @throws IOException on write error
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        var writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        for (Entry entry : entries.values()) {
+            writer.write(entry.getSha256() + ' ' + entry.getSize() + ' ' + entry.getPath() + '\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Parse a manifest in the format described in the documentation of this class.
+     *
+     * @param stream to read from. It is not closed by this method.
+     * @return the manifest
+     * @throws IOException on read error, or if the manifest is invalid
+     */
+    public static UpdateManifest parse(InputStream stream) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        var result = new ArrayList<Entry>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            var hashEnd = line.indexOf(' ');
+            var sizeEnd = hashEnd < 0 ? -1 : line.indexOf(' ', hashEnd + 1);
+            if (sizeEnd < 0) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+            try {
+                result.add(new Entry(line.substring(sizeEnd + 1),
+                        Long.parseLong(line.substring(hashEnd + 1, sizeEnd)),
+                        line.substring(0, hashEnd)));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid manifest line: " + line);
+            }
+        }
+        return new UpdateManifest(result);
+    }
+
+    /**
+     * Create the manifest of an application image by hashing all of its files.
+     *
+     * @param root directory of the image
+     * @return the manifest
+     * @throws IOException on read error
+     */
+    public static UpdateManifest of(Path root) throws IOException {
+        var result = new ArrayList<Entry>();
+        try (var files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                var path = root.relativize(file).toString().replace('\\', '/');
+                result.add(new Entry(path, Files.size(file), Hashes.sha256Hex(file)));
+            }
+        }
+        return new UpdateManifest(result);
+    }
+}
@@ -0,0 +1,119 @@
+package com.athaydes.keepup.api;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A snapshot of the progress of an update.
+ * <p>
+ * Progress events are emitted while an update is downloaded and while it is unpacked, at most a few
+ * times per second, plus a final event when each stage completes.
+ *
+ * @see Keepup#onProgress(java.util.function.Consumer)
+ */
+public final class UpdateProgress {
+
+    /**
+     * Stage of the update this progress refers to.
+     */
+    public enum Stage {
+        /**
+         * The update is being downloaded.
+         */
+        DOWNLOAD,
+        /**
+         * The update is being unpacked.
+         * When {@link KeepupConfig#unpackWhileDownloading()} is enabled, this stage happens
+         * at the same time as the download.
+         */
+        UNPACK
+    }
+
+    private final Stage stage;
+    private final String version;
+    private final long bytes;
+    private final long totalBytes;
+    private final int entries;
+    private final double bytesPerSecond;
+    private final boolean done;
+
+    public UpdateProgress(Stage stage, String version, long bytes, long totalBytes,
+                          int entries, double bytesPerSecond, boolean done) {
+        this.stage = stage;
+        this.version = version;
+        this.bytes = bytes;
+        this.totalBytes = totalBytes;
+        this.entries = entries;
+        this.bytesPerSecond = bytesPerSecond;
+        this.done = done;
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * @return the name of the version being installed
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of bytes downloaded, or unpacked, so far
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the total number of bytes expected for this stage, or -1 if unknown
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of zip entries unpacked so far, always 0 in the {@link Stage#DOWNLOAD} stage
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the average throughput since this stage started
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return whether this stage has completed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return the estimated time until this stage completes, if the total number of bytes is known
+     */
+    public Optional<Duration> getEta() {
+        if (done) return Optional.of(Duration.ZERO);
+        if (totalBytes < 0 || bytesPerSecond <= 0) return Optional.empty();
+        var remaining = Math.max(0L, totalBytes - bytes);
+        return Optional.of(Duration.ofMillis((long) (remaining * 1000 / bytesPerSecond)));
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateProgress{" +
+                "stage=" + stage +
+                ", version='" + version + '\'' +
+                ", bytes=" + bytes +
+                ", totalBytes=" + totalBytes +
+                ", entries=" + entries +
+                ", bytesPerSecond=" + bytesPerSecond +
+                ", done=" + done +
+                '}';
+    }
+}
@@ -0,0 +1,59 @@
+package com.athaydes.keepup.api;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * How often {@link Updater#scheduleChecks(UpdateSchedule)} checks for updates.
+ * <p>
+ * Checks run every {@code interval}, randomly shifted by up to {@code jitter} times the delay, so that
+ * many installations of an application do not all check at the same moment. The interval grows when
+ * releases are observed to be rare, and it doubles after each failed check, but it never exceeds
+ * {@code maxInterval}, except if the server asks clients to wait longer (see {@link KeepupException#getRetryAfter()}).
+ */
+public final class UpdateSchedule {
+
+    private final Duration interval;
+    private final Duration maxInterval;
+    private final double jitter;
+
+    /**
+     * @param interval    time between checks
+     * @param maxInterval maximum time between checks when releases are rare or checks fail
+     * @param jitter      fraction of the delay by which checks are randomly shifted, between 0 and 1
+     */
+    public UpdateSchedule(Duration interval, Duration maxInterval, double jitter) {
+        this.interval = Objects.requireNonNull(interval);
+        this.maxInterval = Objects.requireNonNull(maxInterval);
+        this.jitter = jitter;
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        if (maxInterval.compareTo(interval) < 0) {
+            throw new IllegalArgumentException("maxInterval must not be shorter than interval");
+        }
+        if (!(0.0 <= jitter && jitter <= 1.0)) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+    }
+
+    /**
+     * @param interval time between checks
+     * @return a schedule with the given interval, which may grow up to 8 times longer, and 20% jitter
+     */
+    public static UpdateSchedule every(Duration interval) {
+        return new UpdateSchedule(interval, interval.multipliedBy(8), 0.2);
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public Duration getMaxInterval() {
+        return maxInterval;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+}
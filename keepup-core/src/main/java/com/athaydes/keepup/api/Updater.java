@@ -2,10 +2,10 @@ package com.athaydes.keepup.api;
 
 import com.athaydes.keepup.KeepupCallbacks;
 import com.athaydes.keepup.KeepupStateMachine;
+import com.athaydes.keepup.UpdateScheduler;
 
 import java.io.File;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
@@ -16,10 +16,10 @@ import static com.athaydes.keepup.api.KeepupException.ErrorCode.APP_HOME;
  */
 public final class Updater {
 
-    private final AtomicBoolean isUpdating = new AtomicBoolean(false);
-
     private final KeepupConfig config;
     private final KeepupCallbacks callbacks;
+    private UpdateCycle currentCycle;
+    private UpdateScheduler scheduler;
 
     public Updater(KeepupConfig config,
                    BiFunction<String, File, CompletionStage<Boolean>> onUpdate,
@@ -27,19 +27,25 @@ public final class Updater {
                    Consumer<KeepupException> onError,
                    Runnable doneWithoutUpdate,
                    Consumer<UpdateInstaller> doneWithUpdate) {
+        this(config, onUpdate, onNoUpdate, onError, doneWithoutUpdate, doneWithUpdate, progress -> {
+        });
+    }
+
+    public Updater(KeepupConfig config,
+                   BiFunction<String, File, CompletionStage<Boolean>> onUpdate,
+                   Runnable onNoUpdate,
+                   Consumer<KeepupException> onError,
+                   Runnable doneWithoutUpdate,
+                   Consumer<UpdateInstaller> doneWithUpdate,
+                   Consumer<UpdateProgress> onProgress) {
         this.config = config;
         this.callbacks = new KeepupCallbacks(
                 onUpdate,
                 onNoUpdate,
                 onError,
-                () -> {
-                    isUpdating.set(false);
-                    doneWithoutUpdate.run();
-                },
-                (installer) -> {
-                    isUpdating.set(false);
-                    doneWithUpdate.accept(installer);
-                }
+                doneWithoutUpdate,
+                doneWithUpdate,
+                onProgress
         );
     }
 
@@ -48,17 +54,47 @@ public final class Updater {
      * <p>
      * Calling this method has the effect of starting a Keepup update cycle if no previous cycle is still running.
      * <p>
-     * If a previous cycle has not completed when this method is called, then this call has no effect.
+     * If a previous cycle has not completed when this method is called, then this call has no effect,
+     * and the previous cycle is returned.
      *
+     * @return the running update cycle, which can be used to wait for its result or to cancel it
      * @see Keepup
      */
-    public void checkForUpdate() {
+    public synchronized UpdateCycle checkForUpdate() {
         if (!config.appHome().mkdirs() && !config.appHome().isDirectory()) {
             throw new KeepupException(APP_HOME, "AppHome is not a directory and it could not be created");
         }
-        if (isUpdating.compareAndSet(false, true)) {
-            new KeepupStateMachine(config, callbacks).start();
+        if (currentCycle == null || currentCycle.isDone()) {
+            currentCycle = new UpdateCycle(new KeepupStateMachine(config, callbacks));
         }
+        return currentCycle;
     }
 
+    /**
+     * Check for updates periodically, in the background, until {@link Updater#stopScheduledChecks()} is called.
+     * <p>
+     * Each check is equivalent to calling {@link Updater#checkForUpdate()}, so the {@link Keepup} callbacks are
+     * invoked as usual. When checks run is saved in {@link KeepupConfig#appHome()}, so restarting the application
+     * does not reset the schedule (see {@link UpdateSchedule} for how the time between checks is chosen).
+     * <p>
+     * The timer used for scheduling checks does not stop the application from exiting.
+     * Calling this method again replaces the current schedule.
+     *
+     * @param schedule when to check for updates
+     */
+    public synchronized void scheduleChecks(UpdateSchedule schedule) {
+        stopScheduledChecks();
+        scheduler = new UpdateScheduler(config, schedule, this::checkForUpdate);
+        scheduler.start();
+    }
+
+    /**
+     * Stop checking for updates periodically. An update cycle that is already running is not affected.
+     */
+    public synchronized void stopScheduledChecks() {
+        if (scheduler != null) {
+            scheduler.stop();
+            scheduler = null;
+        }
+    }
 }
@@ -5,5 +5,6 @@
  * The code is hosted on GitHub: https://github.com/renatoathaydes/keepup.
  */
 module com.athaydes.keepup.core {
+    requires transitive java.net.http;
     exports com.athaydes.keepup.api;
 }
\ No newline at end of file
@@ -1,19 +1,23 @@
 package com.athaydes.keepup.github;
 
 import com.athaydes.keepup.api.AppDistributor;
+import com.athaydes.keepup.api.ConditionalRequestCache;
+import com.athaydes.keepup.api.HttpTransport;
+import com.athaydes.keepup.api.KeepupConfig;
 import com.athaydes.keepup.api.KeepupException;
+import com.athaydes.keepup.api.ResourceBudget;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import static com.athaydes.keepup.api.KeepupException.ErrorCode.LATEST_VERSION_CHECK;
@@ -27,13 +31,17 @@ import static com.athaydes.keepup.api.KeepupException.ErrorCode.LATEST_VERSION_C
  * Most behaviour of this class is customizable via callbacks passed into its constructor, so it is usually
  * not necessary to sub-class it to adapt its behaviour.
  * <p>
- * This implementation avoids relying on anything other than the Java basic standard library
- * (module {@code java.base}) and a small JSON parser (org.json) by performing HTTP requests via
- * {@link java.net.URLConnection}, and building the GraphQL query (which is static) as a simple JSON
- * String.
+ * This implementation avoids relying on anything other than the Java standard library
+ * and a small JSON parser (org.json) by performing HTTP requests via the {@link HttpTransport}
+ * provided by Keepup (based on {@link java.net.http.HttpClient}), and building the GraphQL query
+ * (which is static) as a simple JSON String.
+ * <p>
+ * The last response is cached in the Keepup home directory, and the query is sent as a conditional request
+ * so that, if the server supports it, the response does not need to be downloaded again when nothing changed.
  */
 public class GitHubAppDistributor implements AppDistributor<GithubAppVersion> {
     private static final String GH_URL = "https://api.github.com/graphql";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
 
     private static final String QUERY = "{\"query\":\"query{repository(owner:\\\"%s\\\",name:\\\"%s\\\"){" +
             "releases(last:1){nodes{tagName releaseAssets(first:%d){nodes{name downloadUrl}}}}}}\"}";
@@ -43,6 +51,10 @@ public class GitHubAppDistributor implements AppDistributor<GithubAppVersion> {
     private final Function<String, CompletionStage<Boolean>> acceptVersion;
     private final Function<GitHubResponse, GitHubAsset> selectDownloadAsset;
 
+    private volatile HttpTransport transport = HttpTransport.shared();
+    private volatile ConditionalRequestCache cache = ConditionalRequestCache.disabled();
+    private volatile ResourceBudget budget = ResourceBudget.unlimited();
+
     public GitHubAppDistributor(String accessToken,
                                 String owner,
                                 String repository,
@@ -58,71 +70,119 @@ public class GitHubAppDistributor implements AppDistributor<GithubAppVersion> {
                 assetsCount);
     }
 
+    @Override
+    public void init(KeepupConfig config) {
+        transport = config.httpTransport();
+        cache = ConditionalRequestCache.of(config);
+        budget = config.resourceBudget();
+    }
+
     @Override
     public CompletionStage<Optional<GithubAppVersion>> findLatestVersion() throws Exception {
-        var connection = Http.connect(new URL(GH_URL), "POST");
-        connection.setDoOutput(true);
-        var payload = query.getBytes(StandardCharsets.UTF_8);
-        connection.setRequestProperty("Authorization", "Bearer " + accessToken);
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Content-Length", Integer.toString(payload.length));
-
-        var future = new CompletableFuture<Optional<GithubAppVersion>>();
-        try {
-            connection.getOutputStream().write(payload);
-            if (connection.getResponseCode() == 200) {
-                var response = GitHubResponse.fromGraphQL(
-                        new BufferedInputStream(connection.getInputStream(), 4096));
-                var latestVersion = response.getLatestVersion();
-                acceptVersion.apply(latestVersion)
-                        .whenComplete(completeFuture(future, response));
-                return future;
-            } else {
-                var error = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-                future.completeExceptionally(new KeepupException(
-                        LATEST_VERSION_CHECK, String.format(
-                        "GitHub response status code is not 200: %s - body: %s",
-                        connection.getResponseCode(),
-                        error)));
-                return future;
-            }
-        } finally {
-            connection.disconnect();
-        }
+        var cacheKey = GH_URL + '\n' + query;
+        var request = cache.withValidators(cacheKey, HttpRequest.newBuilder(URI.create(GH_URL))
+                .timeout(TIMEOUT)
+                .header("Authorization", "Bearer " + accessToken)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(query)))
+                .build();
+
+        return transport.sendAsync(request, BodyHandlers.ofString())
+                .thenCompose(response -> {
+                    if (cache.isNotModified(response)) {
+                        var cachedBody = cache.get(cacheKey).orElseThrow(() -> new KeepupException(
+                                LATEST_VERSION_CHECK, "GitHub response not modified, but cache entry is missing"));
+                        return acceptLatestVersion(GitHubResponse.fromGraphQL(cachedBody));
+                    } else if (response.statusCode() == 200) {
+                        var latestResponse = GitHubResponse.fromGraphQL(response.body());
+                        cache.put(cacheKey, response, response.body());
+                        return acceptLatestVersion(latestResponse);
+                    } else {
+                        throw KeepupException.fromResponse(LATEST_VERSION_CHECK, String.format(
+                                "GitHub response status code is not 200: %s - body: %s",
+                                response.statusCode(),
+                                response.body()), response);
+                    }
+                });
     }
 
-    private BiConsumer<Boolean, Throwable> completeFuture(CompletableFuture<Optional<GithubAppVersion>> future,
-                                                          GitHubResponse response) {
-        return (accept, error) -> {
-            if (error != null) {
-                future.completeExceptionally(error);
-            } else {
-                if (accept) {
-                    future.complete(Optional.of(new GithubAppVersion(response)));
-                } else {
-                    future.complete(Optional.empty());
-                }
-            }
-        };
+    private CompletionStage<Optional<GithubAppVersion>> acceptLatestVersion(GitHubResponse response) {
+        return acceptVersion.apply(response.getLatestVersion())
+                .thenApply(accept -> accept
+                        ? Optional.of(new GithubAppVersion(response))
+                        : Optional.empty());
     }
 
     @Override
     public File download(GithubAppVersion version) throws Exception {
-        var response = version.getResponse();
-        var asset = selectDownloadAsset.apply(response);
-        var connection = Http.connect(asset.getUri().toURL(), "GET");
-        try {
-            if (connection.getResponseCode() != 200) {
-                throw new IOException("Unexpected status code: " + connection.getResponseCode());
-            }
+        try (var stream = openDownload(version)) {
             var file = Files.createTempFile("keepup-asset", ".zip");
-            Files.copy(connection.getInputStream(), file, StandardCopyOption.REPLACE_EXISTING);
+            try (var out = budget.getDiskWriteLimiter().limit(Files.newOutputStream(file))) {
+                budget.getDownloadLimiter().limit(stream).transferTo(out);
+            }
             return file.toFile();
-        } finally {
-            connection.disconnect();
         }
     }
 
+    @Override
+    public Optional<URI> downloadUri(GithubAppVersion version) {
+        var response = version.getResponse();
+        var asset = selectDownloadAsset.apply(response);
+        return Optional.of(asset.getUri());
+    }
+
+    /**
+     * Reads the expected hash of the download asset from an asset with the same name and the {@code .sha256}
+     * extension, if there is one in the release, as created by the {@code sha256sum} command.
+     */
+    @Override
+    public Optional<String> expectedSha256(GithubAppVersion version) throws Exception {
+        var hashAsset = companionAsset(version, ".sha256");
+        if (hashAsset.isEmpty()) return Optional.empty();
+        var contents = new String(fetch(hashAsset.get().getUri()), StandardCharsets.US_ASCII).trim();
+        return Optional.of(contents.split("\\s+", 2)[0]);
+    }
+
+    /**
+     * Reads the signature of the download asset from an asset with the same name and the {@code .sig}
+     * extension, if there is one in the release.
+     */
+    @Override
+    public Optional<byte[]> signature(GithubAppVersion version) throws Exception {
+        var signatureAsset = companionAsset(version, ".sig");
+        if (signatureAsset.isEmpty()) return Optional.empty();
+        return Optional.of(fetch(signatureAsset.get().getUri()));
+    }
+
+    private Optional<GitHubAsset> companionAsset(GithubAppVersion version, String extension) {
+        var response = version.getResponse();
+        var name = selectDownloadAsset.apply(response).getName() + extension;
+        return response.getAssets().stream()
+                .filter(asset -> asset.getName().equals(name))
+                .findFirst();
+    }
+
+    private byte[] fetch(URI uri) throws Exception {
+        var request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).build();
+        var response = transport.send(request, BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("Unexpected status code: " + response.statusCode() + " (" + uri + ")");
+        }
+        return response.body();
+    }
+
+    @Override
+    public InputStream openDownload(GithubAppVersion version) throws Exception {
+        var uri = downloadUri(version).orElseThrow();
+        var request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).build();
+        var response = transport.send(request, BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("Unexpected status code: " + response.statusCode());
+        }
+        return response.body();
+    }
+
     /**
      * Check value to be passed into a GraphQL query.
      * <p>
@@ -2,9 +2,6 @@ package com.athaydes.keepup.github;
 
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -29,8 +26,8 @@ public final class GitHubResponse {
         return assets;
     }
 
-    static GitHubResponse fromGraphQL(InputStream stream) throws IOException {
-        var obj = new JSONObject(new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+    static GitHubResponse fromGraphQL(String json) {
+        var obj = new JSONObject(json);
         var errors = obj.has("errors") ? obj.getJSONArray("errors") : null;
         if (errors != null && errors.length() > 0) {
             throw new IllegalArgumentException("Errors: " + errors.join(", "));